@@ -0,0 +1,360 @@
+/**
+ * CollisionDiagnostics keeps running numbers on how physical the simulation
+ * actually is: total kinetic energy, total linear momentum, a histogram of how
+ * deeply particles had sunk into each other when a collision was detected, the
+ * impulse each wall delivered (which over a frame is the wall's pressure), and
+ * how much position the integer rounding in Particle's translate() threw away.
+ * <br><br>
+ * The class is built to be fed from inside the step loop that already visits
+ * every particle, so measuring costs no extra traversal. Each record method
+ * only adds to a primitive accumulator and nothing is ever allocated after
+ * construction. Once per frame publish() copies the accumulators into a
+ * snapshot that the getters read, and clears them for the next frame; the
+ * getters therefore always describe the last complete frame, never one half
+ * way through.
+ * <br><br>
+ * Elastic collisions and wall bounces should conserve kinetic energy exactly,
+ * and momentum should only change by the impulses the walls deliver. The
+ * published drift values measure how far a frame strays from that, after
+ * allowing for particles the user has added since the last frame. A drift that
+ * keeps growing points at numerical error rather than physics.
+ * <br><br>
+ * Per-frame numbers jump about from one frame to the next and hide error that
+ * builds up slowly, so publish() also adds each frame's drift, and its
+ * rounding error, into running totals kept since construction (or the last
+ * resetTotals()). Energy drift is summed with its sign, so errors that cancel
+ * out do cancel; momentum drift is summed as a vector and reported as the
+ * length of the sum. The rounding total matters most of all: translate()
+ * moves particles by whole pixels but never touches their velocities, so the
+ * position it throws away never shows up as energy drift, and the rounding
+ * total is the only sign of it.
+ * <br><br>
+ * Explanation of constants: <br>
+ * LEFT, RIGHT, TOP and BOTTOM name the four walls when recording or reading
+ * wall impulses. <br>
+ * DEPTH_BINS and DEPTH_BIN_WIDTH shape the penetration histogram: bin k counts
+ * collisions with a depth in [k, k+1) times DEPTH_BIN_WIDTH pixels, and the
+ * last bin also takes everything deeper.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class CollisionDiagnostics {
+
+  static final int LEFT = 0, RIGHT = 1, TOP = 2, BOTTOM = 3;
+  static final int DEPTH_BINS = 16;
+  static final double DEPTH_BIN_WIDTH = 1;
+
+  private final double wallLengthX, wallLengthY;
+
+  // accumulators for the frame in progress
+  private double kinetic, momentumX, momentumY, rounding;
+  private double addedKinetic, addedMomentumX, addedMomentumY;
+  private double impulseX, impulseY;
+  private final double[] wallImpulse = new double[4];
+  private final int[] depthCount = new int[DEPTH_BINS];
+  private int collisions;
+
+  // snapshot of the last published frame
+  private double pubKinetic, pubMomentumX, pubMomentumY, pubRounding;
+  private double pubEnergyDrift, pubMomentumDrift;
+  private final double[] pubWallImpulse = new double[4];
+  private final int[] pubDepthCount = new int[DEPTH_BINS];
+  private int pubCollisions;
+  private long frames;
+
+  // running totals over every published frame
+  private double totalEnergyDrift, totalMomentumX, totalMomentumY, totalRounding;
+
+  /**
+   * Diagnostics must know the size of the container so that wall impulses
+   * can be turned into pressures (impulse per unit of wall length).
+   *
+   * @param width width of the container; length of the top and bottom walls
+   * @param height height of the container; length of the left and right walls
+   */
+  public CollisionDiagnostics(double width, double height) {
+    wallLengthX = width;
+    wallLengthY = height;
+  }
+
+  /**
+   * Adds one particle's kinetic energy and momentum to the frame's totals.
+   * Should be called exactly once per particle per frame, after its velocity
+   * has been settled for the frame.
+   *
+   * @param p particle to account for
+   */
+  public void recordParticle(Particle p) {
+    double m = p.getMass();
+    double vx = p.getVx();
+    double vy = p.getVy();
+    kinetic += 0.5*m*(vx*vx + vy*vy);
+    momentumX += m*vx;
+    momentumY += m*vy;
+    rounding += Math.abs(vx - Math.round(vx)) + Math.abs(vy - Math.round(vy));
+  }
+
+  /**
+   * Corrects the frame's totals for a particle whose velocity was changed
+   * after recordParticle had already been called for it this frame, by adding
+   * the difference its new velocity makes to the energy and momentum.
+   *
+   * @param p the particle, already carrying its new velocity
+   * @param oldVx x-velocity the particle was recorded with
+   * @param oldVy y-velocity the particle was recorded with
+   */
+  public void recordVelocityChange(Particle p, double oldVx, double oldVy) {
+    double m = p.getMass();
+    double vx = p.getVx();
+    double vy = p.getVy();
+    kinetic += 0.5*m*((vx*vx + vy*vy) - (oldVx*oldVx + oldVy*oldVy));
+    momentumX += m*(vx - oldVx);
+    momentumY += m*(vy - oldVy);
+  }
+
+  /**
+   * Accounts for a particle the user has added since the last frame, so that
+   * its energy and momentum are not mistaken for drift.
+   *
+   * @param p the newly added particle
+   */
+  public void recordAdded(Particle p) {
+    double m = p.getMass();
+    addedKinetic += 0.5*m*(p.getVx()*p.getVx() + p.getVy()*p.getVy());
+    addedMomentumX += m*p.getVx();
+    addedMomentumY += m*p.getVy();
+  }
+
+  /**
+   * Accounts for a particle the user has removed, or brought to rest, since
+   * the last frame, so that the energy and momentum it took away are not
+   * mistaken for drift. Must be called before the particle's velocity is
+   * changed.
+   *
+   * @param p the particle being removed or stopped
+   */
+  public void recordRemoved(Particle p) {
+    double m = p.getMass();
+    addedKinetic -= 0.5*m*(p.getVx()*p.getVx() + p.getVy()*p.getVy());
+    addedMomentumX -= m*p.getVx();
+    addedMomentumY -= m*p.getVy();
+  }
+
+  /**
+   * Adds a detected collision to the penetration depth histogram.
+   *
+   * @param depth how far the two particles overlapped, in pixels
+   */
+  public void recordCollision(double depth) {
+    int bin = (int) (depth / DEPTH_BIN_WIDTH);
+    if (bin < 0)
+      bin = 0;
+    else if (bin >= DEPTH_BINS)
+      bin = DEPTH_BINS - 1;
+    depthCount[bin]++;
+    collisions++;
+  }
+
+  /**
+   * Adds the impulse of a single wall bounce. The impulse is the particle's
+   * change in momentum along the axis normal to the wall (x for the left and
+   * right walls, y for the top and bottom ones), with its sign.
+   *
+   * @param wall one of LEFT, RIGHT, TOP or BOTTOM
+   * @param impulse mass times change in velocity normal to the wall
+   */
+  public void recordWallImpulse(int wall, double impulse) {
+    wallImpulse[wall] += Math.abs(impulse);
+    if (wall == LEFT || wall == RIGHT)
+      impulseX += impulse;
+    else
+      impulseY += impulse;
+  }
+
+  /**
+   * Ends the frame: copies every accumulator into the published snapshot,
+   * works out the frame's energy and momentum drift against the previous
+   * snapshot, adds the drift and rounding error to the running totals, and
+   * resets the accumulators. The first frame has nothing to compare against
+   * and reports zero drift.
+   */
+  public void publish() {
+    if (frames > 0) {
+      pubEnergyDrift = kinetic - pubKinetic - addedKinetic;
+      double dx = momentumX - pubMomentumX - addedMomentumX - impulseX;
+      double dy = momentumY - pubMomentumY - addedMomentumY - impulseY;
+      pubMomentumDrift = Math.sqrt(dx*dx + dy*dy);
+      totalEnergyDrift += pubEnergyDrift;
+      totalMomentumX += dx;
+      totalMomentumY += dy;
+    }
+    totalRounding += rounding;
+    pubKinetic = kinetic;
+    pubMomentumX = momentumX;
+    pubMomentumY = momentumY;
+    pubRounding = rounding;
+    pubCollisions = collisions;
+    System.arraycopy(wallImpulse, 0, pubWallImpulse, 0, 4);
+    System.arraycopy(depthCount, 0, pubDepthCount, 0, DEPTH_BINS);
+    frames++;
+
+    kinetic = momentumX = momentumY = rounding = 0;
+    addedKinetic = addedMomentumX = addedMomentumY = 0;
+    impulseX = impulseY = 0;
+    collisions = 0;
+    for (int w = 0; w < 4; w++)
+      wallImpulse[w] = 0;
+    for (int b = 0; b < DEPTH_BINS; b++)
+      depthCount[b] = 0;
+  }
+
+  /**
+   * Returns the total kinetic energy of the last published frame.
+   *
+   * @return sum of one half m v squared over every particle
+   */
+  public double getKineticEnergy() {
+    return pubKinetic;
+  }
+
+  /**
+   * Returns the x-component of the total momentum of the last published frame.
+   *
+   * @return sum of m vx over every particle
+   */
+  public double getMomentumX() {
+    return pubMomentumX;
+  }
+
+  /**
+   * Returns the y-component of the total momentum of the last published frame.
+   *
+   * @return sum of m vy over every particle
+   */
+  public double getMomentumY() {
+    return pubMomentumY;
+  }
+
+  /**
+   * Returns how much kinetic energy appeared or vanished during the last
+   * frame that cannot be explained by newly added particles. Ideally zero.
+   *
+   * @return change in energy not accounted for, as a double
+   */
+  public double getEnergyDrift() {
+    return pubEnergyDrift;
+  }
+
+  /**
+   * Returns the magnitude of the change in momentum during the last frame
+   * that cannot be explained by wall impulses or newly added particles.
+   * Ideally zero.
+   *
+   * @return length of the unaccounted momentum change, as a double
+   */
+  public double getMomentumDrift() {
+    return pubMomentumDrift;
+  }
+
+  /**
+   * Returns the total distance, in pixels, that translate() dropped or added
+   * by rounding each velocity component to whole pixels during the last frame.
+   *
+   * @return summed rounding error of every particle's movement
+   */
+  public double getRoundingError() {
+    return pubRounding;
+  }
+
+  /**
+   * Returns the energy drift summed, with its sign, over every frame since the
+   * totals were last reset.
+   *
+   * @return accumulated change in energy not accounted for
+   */
+  public double getTotalEnergyDrift() {
+    return totalEnergyDrift;
+  }
+
+  /**
+   * Returns the length of the momentum drift summed as a vector over every
+   * frame since the totals were last reset.
+   *
+   * @return length of the accumulated unaccounted momentum change
+   */
+  public double getTotalMomentumDrift() {
+    return Math.sqrt(totalMomentumX*totalMomentumX + totalMomentumY*totalMomentumY);
+  }
+
+  /**
+   * Returns the rounding error of translate() summed over every frame since
+   * the totals were last reset. Since rounding moves particles without
+   * changing their velocities, this is the only place it shows.
+   *
+   * @return accumulated rounding error, in pixels
+   */
+  public double getTotalRoundingError() {
+    return totalRounding;
+  }
+
+  /**
+   * Sets the running totals of drift and rounding error back to zero, for
+   * example when the world starts being moved by a different engine.
+   */
+  public void resetTotals() {
+    totalEnergyDrift = totalMomentumX = totalMomentumY = totalRounding = 0;
+  }
+
+  /**
+   * Returns how many interparticle collisions were detected in the last frame.
+   *
+   * @return number of collisions recorded
+   */
+  public int getCollisionCount() {
+    return pubCollisions;
+  }
+
+  /**
+   * Returns one bin of the penetration depth histogram of the last frame.
+   *
+   * @param bin index of the bin, from 0 to DEPTH_BINS-1
+   * @return number of collisions whose depth fell into the bin
+   */
+  public int getDepthCount(int bin) {
+    return pubDepthCount[bin];
+  }
+
+  /**
+   * Returns the total impulse a wall delivered during the last frame.
+   *
+   * @param wall one of LEFT, RIGHT, TOP or BOTTOM
+   * @return summed magnitude of every bounce against the wall
+   */
+  public double getWallImpulse(int wall) {
+    return pubWallImpulse[wall];
+  }
+
+  /**
+   * Returns the pressure on a wall during the last frame: its impulse divided
+   * by its length. The unit of time is one frame.
+   *
+   * @param wall one of LEFT, RIGHT, TOP or BOTTOM
+   * @return impulse per pixel of wall per frame
+   */
+  public double getWallPressure(int wall) {
+    double len = (wall == LEFT || wall == RIGHT)? wallLengthY : wallLengthX;
+    return pubWallImpulse[wall] / len;
+  }
+
+  /**
+   * Returns how many frames have been published so far.
+   *
+   * @return count of publish() calls
+   */
+  public long getFrameCount() {
+    return frames;
+  }
+
+}
@@ -0,0 +1,439 @@
+/**
+ * EventDrivenEngine is an alternative to ParticleWorld's step() for sparse,
+ * gas-like scenes. Rather than moving every particle one frame at a time and
+ * looking for overlaps afterwards, it works out exactly when the next
+ * collision will happen, jumps straight to that moment, resolves it, and
+ * repeats. Particles flying freely between collisions cost nothing at all
+ * until a frame is asked for.
+ * <br><br>
+ * The engine keeps its own copy of every particle's position and velocity as
+ * doubles, each position valid at the time that particle last changed
+ * velocity, so a particle only has to be touched when something happens to
+ * it. Each particle has one slot in an IndexMinPQ holding its earliest
+ * predicted event: a hit on a wall, or a hit on another particle. When two
+ * particles collide, both are re-predicted. Other particles that had predicted
+ * a hit on either of them are not hunted down; instead every particle carries
+ * a count of the collisions it has been in, each prediction remembers its
+ * partner's count, and an event whose partner's count has since changed is
+ * recognised as stale when it reaches the front of the queue and is simply
+ * re-predicted.
+ * <br><br>
+ * Predictions have no horizon. The world is cut into a grid of cells at
+ * least as wide as the widest particle, so two particles can only touch if
+ * their cells are neighbours, and each particle is kept in the list of the
+ * cell holding its center. A prediction looks at the walls, at the particles
+ * in the particle's own cell and the eight around it, and at the moment the
+ * particle will leave its cell, and queues whichever comes first. Leaving a
+ * cell is an event like any other: the particle is moved to the next cell's
+ * list and predicted again against its new neighbours. Its velocity has not
+ * changed, so the predictions others made against it still stand. A particle
+ * flying freely therefore costs nothing until it reaches a wall, another
+ * particle or the edge of its cell, and a particle at rest is never looked at.
+ * <br><br>
+ * Collisions are resolved like Particle.elasticCollision: the velocities are
+ * split into parts along and across the line between the centers, the parts
+ * along it are exchanged by the 1D elastic collision equations, and the parts
+ * across it are kept. No overlap correction is needed because particles are
+ * caught at the exact moment they touch. Walls sit at the edges of the world,
+ * reached when a particle's edge (not its center plus one pixel, as in step())
+ * touches them.
+ * <br><br>
+ * Frames are produced on demand by advanceFrame(), which processes every
+ * event up to the next frame, writes rounded positions and velocities back
+ * into the world's Particles, feeds the world's diagnostics, and has the world
+ * rebuild its spatial index once, so painting can use it as it stands. If
+ * the world has been changed from outside since the last frame (a particle
+ * added, removed, dragged or stopped) the engine reloads everything from it.
+ * Particles the user drops onto each other while at rest stay overlapping until
+ * something hits them, since nothing here pushes particles apart.
+ * <br><br>
+ * Explanation of constants: <br>
+ * CELLS_PER_PARTICLE sets how many grid cells there are for each particle,
+ * unless that would make cells narrower than the widest particle. Smaller
+ * cells mean fewer neighbours to look at per prediction but more cell
+ * crossings; about one particle per cell was the fastest on sparse scenes,
+ * and it keeps the grid's memory in proportion to the number of particles. <br>
+ * WALL_X and WALL_Y stand in for the partner of an event that is a bounce off
+ * a vertical or a horizontal wall, and CELL_X and CELL_Y for one that is
+ * crossing into the next cell across or down.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class EventDrivenEngine {
+
+  static final double CELLS_PER_PARTICLE = 1;
+  private static final int WALL_X = -1, WALL_Y = -2, CELL_X = -3, CELL_Y = -4, NONE = -5;
+
+  private final ParticleWorld world;
+  private final IndexMinPQ events;
+
+  private int n, seenModCount;
+  private boolean loaded;
+  private double now;
+
+  // the grid: cols by rows cells of cellW by cellH pixels, each holding a
+  // doubly linked list of particles that starts at cellHead (-1 if empty)
+  private int cols, rows;
+  private double cellW, cellH;
+  private int[] cellHead;
+
+  // per-particle state, indexed like the world's particles
+  private double[] px, py, vx, vy, t0, radius, mass;
+  private int[] count, partner, partnerCount;
+  private double[] eventTime;
+  private int[] cellX, cellY, next, prev;
+
+  /**
+   * Creates an engine driving the particles of the given world. Nothing is
+   * read from the world until the first frame is asked for.
+   *
+   * @param w world whose particles the engine moves
+   */
+  public EventDrivenEngine(ParticleWorld w) {
+    world = w;
+    events = new IndexMinPQ(0);
+    px = py = vx = vy = t0 = radius = mass = eventTime = new double[0];
+    count = partner = partnerCount = new int[0];
+    cellX = cellY = next = prev = cellHead = new int[0];
+    loaded = false;
+  }
+
+  /**
+   * Forgets the engine's copy of the particles, so that the next frame starts
+   * again from whatever the world's Particles hold. Should be called when
+   * switching to this engine from another one.
+   */
+  public void reset() {
+    loaded = false;
+  }
+
+  /**
+   * Advances the simulation by exactly one frame, processing every event that
+   * falls within it, then writes the particles' positions (rounded to whole
+   * pixels) and velocities back into the world and publishes the frame's
+   * diagnostics. Writing back only copies; nothing is predicted again.
+   */
+  public void advanceFrame() {
+    if (!loaded || world.getModCount() != seenModCount || world.size() != n)
+      load();
+
+    advanceTo(now + 1);
+
+    CollisionDiagnostics diagnostics = world.getDiagnostics();
+    for (int i = 0; i < n; i++) {
+      Particle p = world.get(i);
+      p.setLocation((int) Math.round(px[i] + vx[i]*(now - t0[i])),
+          (int) Math.round(py[i] + vy[i]*(now - t0[i])));
+      p.setVx(vx[i]);
+      p.setVy(vy[i]);
+      diagnostics.recordParticle(p);
+    }
+    diagnostics.publish();
+    world.particlesMoved();
+  }
+
+  /**
+   * Copies every particle's state out of the world, nudging any particle
+   * that pokes through a wall back inside, files the particles in a new grid,
+   * and predicts every particle's next event from scratch. This is the only
+   * time every particle is predicted.
+   */
+  private void load() {
+    n = world.size();
+    if (px.length < n) {
+      px = new double[n];
+      py = new double[n];
+      vx = new double[n];
+      vy = new double[n];
+      t0 = new double[n];
+      radius = new double[n];
+      mass = new double[n];
+      eventTime = new double[n];
+      count = new int[n];
+      partner = new int[n];
+      partnerCount = new int[n];
+      cellX = new int[n];
+      cellY = new int[n];
+      next = new int[n];
+      prev = new int[n];
+      events.ensureCapacity(n);
+    }
+    double maxRadius = 0;
+    for (int i = 0; i < n; i++) {
+      Particle p = world.get(i);
+      radius[i] = p.getRadius();
+      mass[i] = p.getMass();
+      px[i] = Math.max(radius[i], Math.min(world.getWidth() - radius[i], p.x));
+      py[i] = Math.max(radius[i], Math.min(world.getHeight() - radius[i], p.y));
+      vx[i] = p.getVx();
+      vy[i] = p.getVy();
+      t0[i] = now;
+      count[i] = 0;
+      maxRadius = Math.max(maxRadius, radius[i]);
+    }
+
+    // whole cells across the world, each at least as wide as the widest
+    // particle and as wide as the spacing that gives CELLS_PER_PARTICLE
+    int w = world.getWidth();
+    int h = world.getHeight();
+    double spacing = Math.sqrt(w*(double) h / (CELLS_PER_PARTICLE*Math.max(1, n)));
+    double side = Math.max(2*maxRadius, spacing);
+    cols = Math.max(1, (int) (w / side));
+    rows = Math.max(1, (int) (h / side));
+    cellW = (double) w / cols;
+    cellH = (double) h / rows;
+    if (cellHead.length < cols*rows)
+      cellHead = new int[cols*rows];
+    for (int c = 0; c < cols*rows; c++)
+      cellHead[c] = -1;
+    for (int i = 0; i < n; i++) {
+      cellX[i] = (int) Math.max(0, Math.min(cols-1, Math.floor(px[i] / cellW)));
+      cellY[i] = (int) Math.max(0, Math.min(rows-1, Math.floor(py[i] / cellH)));
+      link(i);
+    }
+
+    seenModCount = world.getModCount();
+    loaded = true;
+    events.clear();
+    for (int i = 0; i < n; i++)
+      predict(i);
+  }
+
+  /**
+   * Adds particle i to the front of the list of the cell it is in.
+   */
+  private void link(int i) {
+    int c = cellY[i]*cols + cellX[i];
+    prev[i] = -1;
+    next[i] = cellHead[c];
+    if (next[i] >= 0)
+      prev[next[i]] = i;
+    cellHead[c] = i;
+  }
+
+  /**
+   * Takes particle i out of the list of the cell it is in.
+   */
+  private void unlink(int i) {
+    if (prev[i] >= 0)
+      next[prev[i]] = next[i];
+    else
+      cellHead[cellY[i]*cols + cellX[i]] = next[i];
+    if (next[i] >= 0)
+      prev[next[i]] = prev[i];
+  }
+
+  /**
+   * Processes, in time order, every queued event up to the given time, then
+   * sets the clock to it. A cell crossing only moves the particle to its new
+   * cell's list; its stored position and collision count are left alone,
+   * since its course has not changed.
+   */
+  private void advanceTo(double limit) {
+    CollisionDiagnostics diagnostics = world.getDiagnostics();
+    while (!events.isEmpty() && events.minKey() <= limit) {
+      int a = events.delMin();
+      int b = partner[a];
+      now = eventTime[a];
+
+      if (b >= 0 && count[b] != partnerCount[a]) {
+        predict(a);    // stale: b has changed course since this was predicted
+        continue;
+      }
+      if (b == CELL_X || b == CELL_Y) {
+        unlink(a);
+        if (b == CELL_X)
+          cellX[a] += (vx[a] > 0)? 1 : -1;
+        else
+          cellY[a] += (vy[a] > 0)? 1 : -1;
+        link(a);
+        predict(a);
+        continue;
+      }
+
+      moveTo(a, now);
+      if (b == WALL_X) {
+        diagnostics.recordWallImpulse((vx[a] < 0)? CollisionDiagnostics.LEFT
+            : CollisionDiagnostics.RIGHT, -2*mass[a]*vx[a]);
+        vx[a] = -vx[a];
+      }
+      else if (b == WALL_Y) {
+        diagnostics.recordWallImpulse((vy[a] < 0)? CollisionDiagnostics.TOP
+            : CollisionDiagnostics.BOTTOM, -2*mass[a]*vy[a]);
+        vy[a] = -vy[a];
+      }
+      else {
+        moveTo(b, now);
+        diagnostics.recordCollision(collide(a, b));
+        world.markColliding(a);
+        world.markColliding(b);
+        count[b]++;
+        predict(b);
+      }
+      count[a]++;
+      predict(a);
+    }
+    now = limit;
+  }
+
+  /**
+   * Elastic collision between two particles that have been brought up to the
+   * current time. The parts of their velocities along the line between their
+   * centers are exchanged by the 1D elastic equations, as in steps 3 and 4 of
+   * Particle.elasticCollision, and the parts across it are kept.
+   *
+   * @return how far the particles overlap, which is zero unless they were
+   * placed overlapping
+   */
+  private double collide(int a, int b) {
+    double dx = px[a] - px[b];
+    double dy = py[a] - py[b];
+    double dist = Math.sqrt(dx*dx + dy*dy);
+    double nx = (dist > 0)? dx/dist : 1;
+    double ny = (dist > 0)? dy/dist : 0;
+
+    double va = vx[a]*nx + vy[a]*ny;
+    double vb = vx[b]*nx + vy[b]*ny;
+    double ma = mass[a];
+    double mb = mass[b];
+    double newVa = (va*(ma-mb) + 2*mb*vb) / (ma+mb);
+    double newVb = (vb*(mb-ma) + 2*ma*va) / (ma+mb);
+
+    vx[a] += (newVa - va)*nx;
+    vy[a] += (newVa - va)*ny;
+    vx[b] += (newVb - vb)*nx;
+    vy[b] += (newVb - vb)*ny;
+    return Math.max(0, radius[a] + radius[b] - dist);
+  }
+
+  /**
+   * Works out particle i's earliest event, against the walls, against the
+   * edges of its cell and against every particle in its cell and the cells
+   * around it, and queues it. A particle at rest has none and is left out of
+   * the queue until something hits it.
+   */
+  private void predict(int i) {
+    double x = px[i] + vx[i]*(now - t0[i]);
+    double y = py[i] + vy[i]*(now - t0[i]);
+    double r = radius[i];
+    double best = Double.POSITIVE_INFINITY;
+    int with = NONE;
+
+    // walls
+    double t = wallTime(x, vx[i], r, world.getWidth());
+    if (t < best) {
+      best = t;
+      with = WALL_X;
+    }
+    t = wallTime(y, vy[i], r, world.getHeight());
+    if (t < best) {
+      best = t;
+      with = WALL_Y;
+    }
+
+    // cell edges
+    t = crossTime(x, vx[i], cellX[i], cellW, cols);
+    if (t < best) {
+      best = t;
+      with = CELL_X;
+    }
+    t = crossTime(y, vy[i], cellY[i], cellH, rows);
+    if (t < best) {
+      best = t;
+      with = CELL_Y;
+    }
+
+    // other particles; anything that can touch i before it leaves its cell
+    // is in that cell or one next to it, and anything that moves next to it
+    // later will look at i then
+    int maxX = Math.min(cols-1, cellX[i]+1);
+    int maxY = Math.min(rows-1, cellY[i]+1);
+    for (int cy = Math.max(0, cellY[i]-1); cy <= maxY; cy++) {
+      for (int cx = Math.max(0, cellX[i]-1); cx <= maxX; cx++) {
+        for (int j = cellHead[cy*cols + cx]; j >= 0; j = next[j]) {
+          if (j == i)
+            continue;
+          double dx = px[j] + vx[j]*(now - t0[j]) - x;
+          double dy = py[j] + vy[j]*(now - t0[j]) - y;
+          double dvx = vx[j] - vx[i];
+          double dvy = vy[j] - vy[i];
+          t = impactTime(dx, dy, dvx, dvy, r + radius[j]);
+          if (t < best) {
+            best = t;
+            with = j;
+          }
+        }
+      }
+    }
+
+    if (with == NONE) {
+      events.remove(i);
+      return;
+    }
+    eventTime[i] = now + best;
+    partner[i] = with;
+    partnerCount[i] = (with >= 0)? count[with] : 0;
+    events.put(i, eventTime[i]);
+  }
+
+  /**
+   * Returns how long until a particle at position p moving at velocity v
+   * along one axis touches the wall at 0 or at size, or infinity if it is at
+   * rest along that axis. A particle already through a wall and still heading
+   * out hits it immediately.
+   */
+  private static double wallTime(double p, double v, double r, double size) {
+    if (v > 0)
+      return Math.max(0, (size - r - p) / v);
+    if (v < 0)
+      return Math.max(0, (r - p) / v);
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns how long until a center at position p moving at velocity v along
+   * one axis leaves cell number cell of a row of cells cells wide, each size
+   * long, or infinity if it is at rest along that axis or heading out through
+   * the wall at the end of the row.
+   */
+  private static double crossTime(double p, double v, int cell, double size, int cells) {
+    if (v > 0 && cell < cells-1)
+      return Math.max(0, ((cell+1)*size - p) / v);
+    if (v < 0 && cell > 0)
+      return Math.max(0, (cell*size - p) / v);
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns how long until two discs touch, given the offset (dx, dy) from
+   * the first center to the second, the second's velocity relative to the
+   * first, and the sum of their radii; or infinity if they never will. Discs
+   * that already overlap and are still closing collide immediately.
+   */
+  private static double impactTime(double dx, double dy, double dvx, double dvy, double sigma) {
+    double b = dx*dvx + dy*dvy;
+    if (b >= 0)
+      return Double.POSITIVE_INFINITY;    // moving apart, or not moving
+    double dd = dx*dx + dy*dy;
+    double gap = dd - sigma*sigma;
+    if (gap <= 0)
+      return 0;
+    double vv = dvx*dvx + dvy*dvy;
+    double disc = b*b - vv*gap;
+    if (disc < 0)
+      return Double.POSITIVE_INFINITY;    // passing each other by
+    return gap / (-b + Math.sqrt(disc));
+  }
+
+  /**
+   * Brings particle i's stored position forward to time t.
+   */
+  private void moveTo(int i, double t) {
+    px[i] += vx[i]*(t - t0[i]);
+    py[i] += vy[i]*(t - t0[i]);
+    t0[i] = t;
+  }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * HierarchicalSpatialHash indexes Particles of very different sizes. A single
+ * SpatialHash has to size its cells for the largest particle, so when the
+ * sizes vary a lot the small particles end up crowded many to a cell and
+ * every lookup wades through them. Sizing for the small particles instead
+ * would make every large particle reach across a great many cells.
+ * <br><br>
+ * Instead this index keeps a stack of SpatialHash levels whose cell sizes
+ * double from one level to the next, starting from the smallest particle's
+ * diameter. Each particle is filed in exactly one level: the first whose cells
+ * are at least as wide as the particle. Lookups go across the levels, each
+ * level widening the looked-up rectangle only by the largest radius it holds,
+ * and since no particle is in two levels nothing is found twice.
+ * <br><br>
+ * For collision checks, a pair of particles only needs to be found from one
+ * side. collectFrom lets a particle look only at its own level and the levels
+ * above it (those holding particles at least as large). Every pair is then
+ * found by its smaller particle, which keeps large particles from wading
+ * through the small particles' fine cells.
+ * <br><br>
+ * When the sizes are close, levels cost more than they save: a second level
+ * means a second set of cells to look through for every particle, while the
+ * small particles gain little from cells fitted to them. So when the largest
+ * diameter is less than SINGLE_LEVEL_RATIO times the smallest, the index is a
+ * plain SpatialHash with cells as wide as the largest particle: build files
+ * the particles straight from the list, with no sorting by level and no table
+ * of members to go through, and every particle is on level 0.
+ * <br><br>
+ * Explanation of constants: <br>
+ * MAX_LEVELS caps the number of levels; with cells doubling each level, 16
+ * levels cover size ratios far beyond anything the sprites produce. <br>
+ * SINGLE_LEVEL_RATIO is where levels start to pay, as measured by
+ * ReboundBenchmark with 20000 particles. In scenes of two sizes, as many of
+ * each like henry and dylan, one level was faster at every ratio up to 32.
+ * In polydisperse scenes, where small particles far outnumber large ones,
+ * it was faster up to 12 (15 against 18 ms) and slower from 16 on (22
+ * against 17 ms, and 53 against 18 at 32).
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class HierarchicalSpatialHash {
+
+  static final int MAX_LEVELS = 16;
+  static final double SINGLE_LEVEL_RATIO = 16;
+
+  private final SpatialHash[] levels;
+  private final double singleLevelRatio;
+  private int levelCount;
+  private double baseCellSize;
+  private double minX, minY, maxX, maxY;
+  private int[] levelOf, levelStart, members;
+
+  /**
+   * Creates an empty index. Nothing can be found in it until build is called.
+   */
+  public HierarchicalSpatialHash() {
+    this(SINGLE_LEVEL_RATIO);
+  }
+
+  /**
+   * Creates an empty index that only uses a single level when the size ratio
+   * is below the one given, so that ReboundBenchmark can time the levels
+   * where they would not normally be used.
+   *
+   * @param singleLevelRatio largest diameter over smallest below which a
+   * single level is built
+   */
+  HierarchicalSpatialHash(double singleLevelRatio) {
+    this.singleLevelRatio = singleLevelRatio;
+    levels = new SpatialHash[MAX_LEVELS];
+    for (int l = 0; l < MAX_LEVELS; l++)
+      levels[l] = new SpatialHash();
+    levelStart = new int[MAX_LEVELS+1];
+    levelOf = members = new int[0];
+    baseCellSize = 1;
+  }
+
+  /**
+   * Files the first count particles of the list, by index, into the level
+   * matching their size. Anything filed by an earlier build is forgotten.
+   *
+   * @param list particles to index
+   * @param count number of particles in list to index
+   */
+  public void build(Particle[] list, int count) {
+    if (levelOf.length < count) {
+      levelOf = new int[count];
+      members = new int[count];
+    }
+
+    double smallest = Double.MAX_VALUE, largest = 0;
+    minX = minY = Double.MAX_VALUE;
+    maxX = maxY = -Double.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      Particle p = list[i];
+      smallest = Math.min(smallest, p.getRadius());
+      largest = Math.max(largest, p.getRadius());
+      minX = Math.min(minX, p.x);
+      minY = Math.min(minY, p.y);
+      maxX = Math.max(maxX, p.x);
+      maxY = Math.max(maxY, p.y);
+    }
+    baseCellSize = (count == 0)? 1 : Math.max(1, 2*smallest);
+
+    if (levelFor(largest) == 0 || largest < singleLevelRatio*smallest) {
+      baseCellSize = Math.max(baseCellSize, 2*largest);
+      levelCount = 1;
+      levels[0].build(list, null, 0, count, baseCellSize);
+      return;
+    }
+
+    // counting sort of particle indices by level
+    levelCount = 1;
+    for (int l = 0; l <= MAX_LEVELS; l++)
+      levelStart[l] = 0;
+    for (int i = 0; i < count; i++) {
+      int l = levelFor(list[i].getRadius());
+      levelOf[i] = l;
+      levelStart[l+1]++;
+      levelCount = Math.max(levelCount, l+1);
+    }
+    for (int l = 0; l < MAX_LEVELS; l++)
+      levelStart[l+1] += levelStart[l];
+    for (int i = count-1; i >= 0; i--)
+      members[--levelStart[levelOf[i]+1]] = i;
+    System.arraycopy(levelStart, 1, levelStart, 0, MAX_LEVELS);
+    levelStart[MAX_LEVELS] = count;
+
+    for (int l = 0; l < levelCount; l++)
+      levels[l].build(list, members, levelStart[l], levelStart[l+1] - levelStart[l],
+          baseCellSize * (1 << l));
+  }
+
+  /**
+   * Returns the level whose cells are the narrowest that are still at least
+   * as wide as a particle of the given radius.
+   */
+  private int levelFor(double radius) {
+    int l = 0;
+    double size = baseCellSize;
+    while (size < 2*radius && l < MAX_LEVELS-1) {
+      size *= 2;
+      l++;
+    }
+    return l;
+  }
+
+  /**
+   * Adds to out the index of every particle, on any level, that might overlap
+   * the given rectangle. Callers do their own exact test on what comes back.
+   * No index is added twice, and out is not cleared first.
+   *
+   * @param minX left edge of the rectangle
+   * @param minY top edge of the rectangle
+   * @param maxX right edge of the rectangle
+   * @param maxY bottom edge of the rectangle
+   * @param out list the candidate indices are appended to
+   */
+  public void collect(double minX, double minY, double maxX, double maxY, IntList out) {
+    collectFrom(0, minX, minY, maxX, maxY, out);
+  }
+
+  /**
+   * Adds to out the index of every particle on the given level or any level
+   * above it that might overlap the given rectangle. Callers do their own
+   * exact test on what comes back. No index is added twice, and out is not
+   * cleared first.
+   *
+   * @param level lowest level to look in
+   * @param minX left edge of the rectangle
+   * @param minY top edge of the rectangle
+   * @param maxX right edge of the rectangle
+   * @param maxY bottom edge of the rectangle
+   * @param out list the candidate indices are appended to
+   */
+  public void collectFrom(int level, double minX, double minY, double maxX, double maxY,
+      IntList out) {
+    for (int l = level; l < levelCount; l++) {
+      if (levels[l].size() > 0)
+        levels[l].collect(minX, minY, maxX, maxY, out);
+    }
+  }
+
+  /**
+   * Returns the level a particle was filed in by the last build.
+   *
+   * @param i index of the particle
+   * @return its level, 0 being the finest
+   */
+  public int getLevel(int i) {
+    return (levelCount == 1)? 0 : levelOf[i];
+  }
+
+  /**
+   * Returns the number of levels in use after the last build.
+   *
+   * @return one more than the highest level holding a particle
+   */
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /**
+   * Returns how far a point is from the farthest corner of the smallest box
+   * holding every center indexed by the last build. No indexed center is
+   * farther from the point than that.
+   *
+   * @param x x-coordinate of the point
+   * @param y y-coordinate of the point
+   * @return distance to the farthest corner of the box, or 0 if nothing is indexed
+   */
+  public double farthestCenter(double x, double y) {
+    if (minX > maxX)
+      return 0;
+    double dx = Math.max(Math.abs(x - minX), Math.abs(x - maxX));
+    double dy = Math.max(Math.abs(y - minY), Math.abs(y - maxY));
+    return Math.hypot(dx, dy);
+  }
+
+  /**
+   * Returns the side length of a cell on the finest level.
+   *
+   * @return smallest indexed particle diameter, or the largest if there is
+   * only one level, and at least 1
+   */
+  public double getCellSize() {
+    return baseCellSize;
+  }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * IndexMinPQ is a priority queue of the integers 0 to capacity-1, each with
+ * a double key, that always hands back the integer with the smallest key. It
+ * differs from java.util.PriorityQueue in two ways that matter for event
+ * scheduling: the key of an integer already in the queue can be changed, or
+ * the integer removed, in logarithmic time, because the queue remembers where
+ * in its heap every integer sits; and nothing is boxed or allocated once the
+ * queue has been sized.
+ * <br><br>
+ * Internally it is an ordinary binary min-heap stored in an array, plus an
+ * inverse array giving each integer's position in the heap (or -1 when it is
+ * not queued).
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class IndexMinPQ {
+
+  private int[] heap, pos;
+  private double[] key;
+  private int size;
+
+  /**
+   * Creates an empty queue able to hold the integers 0 to capacity-1.
+   *
+   * @param capacity one more than the largest integer that can be queued
+   */
+  public IndexMinPQ(int capacity) {
+    heap = new int[0];
+    pos = new int[0];
+    key = new double[0];
+    ensureCapacity(capacity);
+  }
+
+  /**
+   * Makes room for the integers 0 to capacity-1, keeping whatever is queued.
+   *
+   * @param capacity one more than the largest integer that can be queued
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity <= pos.length)
+      return;
+    int[] newHeap = new int[capacity];
+    int[] newPos = new int[capacity];
+    double[] newKey = new double[capacity];
+    System.arraycopy(heap, 0, newHeap, 0, size);
+    System.arraycopy(pos, 0, newPos, 0, pos.length);
+    System.arraycopy(key, 0, newKey, 0, key.length);
+    for (int i = pos.length; i < capacity; i++)
+      newPos[i] = -1;
+    heap = newHeap;
+    pos = newPos;
+    key = newKey;
+  }
+
+  /**
+   * Queues an integer with the given key, or changes its key if it is
+   * already queued.
+   *
+   * @param i integer to queue
+   * @param k its key
+   */
+  public void put(int i, double k) {
+    if (pos[i] < 0) {
+      heap[size] = i;
+      pos[i] = size;
+      key[i] = k;
+      up(size++);
+    }
+    else {
+      double old = key[i];
+      key[i] = k;
+      if (k < old)
+        up(pos[i]);
+      else
+        down(pos[i]);
+    }
+  }
+
+  /**
+   * Takes an integer out of the queue. Does nothing if it is not queued.
+   *
+   * @param i integer to remove
+   */
+  public void remove(int i) {
+    int k = pos[i];
+    if (k < 0)
+      return;
+    size--;
+    if (k != size) {
+      swap(k, size);
+      pos[i] = -1;
+      up(k);
+      down(k);
+    }
+    else
+      pos[i] = -1;
+  }
+
+  /**
+   * Removes and returns the integer with the smallest key.
+   *
+   * @return the integer that had the smallest key
+   */
+  public int delMin() {
+    int min = heap[0];
+    remove(min);
+    return min;
+  }
+
+  /**
+   * Returns the integer with the smallest key, leaving it queued.
+   *
+   * @return the integer with the smallest key
+   */
+  public int minIndex() {
+    return heap[0];
+  }
+
+  /**
+   * Returns the smallest key in the queue.
+   *
+   * @return the key of minIndex()
+   */
+  public double minKey() {
+    return key[heap[0]];
+  }
+
+  /**
+   * Returns true if the integer is queued.
+   *
+   * @param i integer to look for
+   * @return true if i is in the queue
+   */
+  public boolean contains(int i) {
+    return i < pos.length && pos[i] >= 0;
+  }
+
+  /**
+   * Returns true if nothing is queued.
+   *
+   * @return true if the queue is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of queued integers.
+   *
+   * @return size of the queue
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Empties the queue.
+   */
+  public void clear() {
+    for (int k = 0; k < size; k++)
+      pos[heap[k]] = -1;
+    size = 0;
+  }
+
+  /**
+   * Moves the entry at heap position k up until its parent's key is no larger.
+   */
+  private void up(int k) {
+    while (k > 0 && key[heap[(k-1)/2]] > key[heap[k]]) {
+      swap(k, (k-1)/2);
+      k = (k-1)/2;
+    }
+  }
+
+  /**
+   * Moves the entry at heap position k down until neither child's key is smaller.
+   */
+  private void down(int k) {
+    while (2*k+1 < size) {
+      int c = 2*k+1;
+      if (c+1 < size && key[heap[c+1]] < key[heap[c]])
+        c++;
+      if (key[heap[k]] <= key[heap[c]])
+        break;
+      swap(k, c);
+      k = c;
+    }
+  }
+
+  /**
+   * Swaps two heap positions and updates the inverse array.
+   */
+  private void swap(int a, int b) {
+    int t = heap[a];
+    heap[a] = heap[b];
+    heap[b] = t;
+    pos[heap[a]] = a;
+    pos[heap[b]] = b;
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * IntList is a growable list of primitive ints, used to hand back the indices
+ * found by spatial queries without boxing them into Integers. A caller keeps
+ * one IntList around and passes it to query after query; the backing array
+ * only grows when a result is larger than anything seen before, so in steady
+ * state a query allocates nothing.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class IntList {
+
+  private int[] data;
+  private int size;
+
+  /**
+   * Creates an empty list with room for 16 values.
+   */
+  public IntList() {
+    this(16);
+  }
+
+  /**
+   * Creates an empty list with room for the given number of values.
+   *
+   * @param capacity initial length of the backing array
+   */
+  public IntList(int capacity) {
+    data = new int[Math.max(1, capacity)];
+    size = 0;
+  }
+
+  /**
+   * Appends a value, doubling the backing array if it is full.
+   *
+   * @param v value to append
+   */
+  public void add(int v) {
+    if (size == data.length) {
+      int[] bigger = new int[data.length*2];
+      System.arraycopy(data, 0, bigger, 0, size);
+      data = bigger;
+    }
+    data[size++] = v;
+  }
+
+  /**
+   * Returns the value at a position in the list.
+   *
+   * @param i position, from 0 to size()-1
+   * @return the value stored there
+   */
+  public int get(int i) {
+    return data[i];
+  }
+
+  /**
+   * Replaces the value at a position in the list.
+   *
+   * @param i position, from 0 to size()-1
+   * @param v new value
+   */
+  public void set(int i, int v) {
+    data[i] = v;
+  }
+
+  /**
+   * Returns the number of values in the list.
+   *
+   * @return number of values added since the last clear
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Sorts the values in the list into ascending order, in place. This is a
+   * plain quicksort with insertion sort for short runs rather than
+   * Arrays.sort, because the library sort allocates scratch space on some
+   * inputs and the list is sorted every frame by the painting code. Recursing
+   * only into the shorter side keeps the stack depth logarithmic.
+   */
+  public void sort() {
+    sort(0, size-1);
+  }
+
+  /**
+   * Sorts data[lo..hi].
+   */
+  private void sort(int lo, int hi) {
+    while (hi - lo > 16) {
+      int mid = (lo + hi) >>> 1;
+      if (data[mid] < data[lo])
+        swap(mid, lo);
+      if (data[hi] < data[lo])
+        swap(hi, lo);
+      if (data[hi] < data[mid])
+        swap(hi, mid);
+      int pivot = data[mid];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (data[i] < pivot)
+          i++;
+        while (data[j] > pivot)
+          j--;
+        if (i <= j)
+          swap(i++, j--);
+      }
+      if (j - lo < hi - i) {
+        sort(lo, j);
+        lo = i;
+      }
+      else {
+        sort(i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo+1; i <= hi; i++) {
+      int v = data[i];
+      int j = i-1;
+      while (j >= lo && data[j] > v) {
+        data[j+1] = data[j];
+        j--;
+      }
+      data[j+1] = v;
+    }
+  }
+
+  /**
+   * Swaps two values.
+   */
+  private void swap(int a, int b) {
+    int t = data[a];
+    data[a] = data[b];
+    data[b] = t;
+  }
+
+  /**
+   * Empties the list without releasing its backing array.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+}
@@ -114,7 +114,7 @@ public class Particle extends Point {
    * @param other Particle that this may be colliding with
    * @return true if particles intersect, false otherwise
    */
-  public Boolean intersects (Particle other) {
+  public boolean intersects (Particle other) {
     double distSQ = distanceSq(other);
     double bothRad = getRadius() + other.getRadius();
     if (distSQ <= bothRad*bothRad) {
@@ -142,20 +142,51 @@ public class Particle extends Point {
    * 
    * @param b true if particle is colliding / has just collided, false otherwise
    */
-  public void setColliding(Boolean b) {
+  public void setColliding(boolean b) {
     colliding = b;
   }
   
+  /**
+   * Sets the colliding field of a Particle from a Boolean object, for
+   * applications that keep the value boxed. A literal true or false picks
+   * setColliding(boolean) instead.
+   * 
+   * @param b true if particle is colliding / has just collided, false otherwise
+   * @deprecated use setColliding(boolean)
+   */
+  @Deprecated
+  public void setColliding(Boolean b) {
+    setColliding(b.booleanValue());
+  }
+  
   /**
    * Returns colliding field of a Particle.
    * 
    * @return colliding; should be true if particle is colliding / has just collided,
    * false otherwise.
    */
-  public Boolean isColliding() {
+  public boolean isColliding() {
     return colliding;
   }
   
+  /**
+   * Makes this Particle an exact copy of another one: its location, velocity,
+   * size, mass, image and colliding field are all set to the other's. This
+   * lets ParticleWorld move particles into spare objects when it re-sorts
+   * them, instead of allocating new ones.
+   * 
+   * @param other Particle whose state should be copied into this one
+   */
+  public void copyFrom(Particle other) {
+    setLocation(other.x, other.y);
+    image = other.image;
+    vX = other.vX;
+    vY = other.vY;
+    radius = other.radius;
+    mass = other.mass;
+    colliding = other.colliding;
+  }
+  
   /**
    * After scouring the Internet and tweaking many, many times, the following
    * method for elastic collision between two Particles has been developed:
@@ -179,9 +210,14 @@ public class Particle extends Point {
    * http://director-online.com/buildArticle.php?id=532<br>
    * http://spiff.rit.edu/classes/phys311.old/lectures/coll2d/coll2d.html<br>
    * http://stackoverflow.com/questions/345838/ball-to-ball-collision-detection-and-handling
+   * <br><br>
+   * The depth the particles had sunk into each other before step 2 pushed them
+   * apart is returned, so that applications can keep track of how well their
+   * time step is catching collisions.
    * @param other Particle that this Particle collides with
+   * @return how far the particles overlapped before being separated, in pixels
    */
-  public void elasticCollision(Particle other) {
+  public double elasticCollision(Particle other) {
 	  
     // Calculate angle of collision between particles
     double xDist = x - other.x;
@@ -231,6 +267,8 @@ public class Particle extends Point {
     // Defining post-collision direction and velocity for each particle
     setVelocity(newDir1,newVelMag1);
     other.setVelocity(newDir2,newVelMag2);
+    
+    return bothRad-dist;
   }
   
   /**
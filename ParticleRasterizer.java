@@ -0,0 +1,550 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import javax.swing.*;
+
+/**
+ * ParticleRasterizer is a software render backend that draws Particles by
+ * copying premultiplied sprite pixels straight into the int[] raster of a
+ * BufferedImage, rather than sending every particle through ImageIcon's
+ * paintIcon and the full Graphics2D pipeline. Nothing here touches the screen
+ * or a GPU, so it works the same on a headless machine as it does in the panel.
+ * <br><br>
+ * The framebuffer is split into horizontal bands of equal height. Before
+ * drawing, every particle is binned into each band its sprite overlaps (a
+ * counting sort into one flat int array), so each band only ever looks at the
+ * particles that can actually touch it. Bands are then rasterized in parallel:
+ * the calling thread draws the first band and one worker thread per remaining
+ * band draws the others. Since no two bands share a row of pixels, they never
+ * write to the same memory and need no locking. Within a band particles are
+ * drawn in list order, so overlapping sprites stack the same way they do with
+ * paintIcon.
+ * <br><br>
+ * Sprites are converted to premultiplied ARGB the first time each ImageIcon is
+ * seen and cached from then on. With premultiplied pixels the source-over blend
+ * is a single multiply per channel, and fully opaque or fully transparent
+ * pixels (which is nearly all of them for the gif sprites) skip the blend
+ * entirely.
+ * <br><br>
+ * Nothing is allocated per frame once the sprites are cached and the arrays
+ * have grown to fit. In particular the workers are not handed tasks through an
+ * ExecutorService, whose futures would be garbage every frame; they stay
+ * parked between frames, are woken by a bump of a frame counter, and the last
+ * one to finish wakes the calling thread again. A worker that fails hands
+ * what it threw back to the calling thread, which rethrows it from render once
+ * every band is done, so a bad frame is reported rather than leaving the caller
+ * waiting forever. close() stops the workers when the rasterizer is no longer
+ * needed.
+ * <br><br>
+ * For worlds larger than the screen, particles can also be drawn through a
+ * Camera, in which case only the particles listed as visible are drawn and
+ * sprites are scaled (nearest neighbour) by the camera's zoom. Two cheaper
+ * levels of detail are offered for when the camera is zoomed far out: points,
+ * where each particle is a single pixel in its sprite's average color, and
+ * density tiles, where the view is cut into square tiles shaded by how many
+ * particles they hold. Either way the cost follows what is on screen, not how
+ * many particles the world holds.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class ParticleRasterizer {
+
+  private final int bandCount;
+  private final Thread[] workers;
+  private final AtomicInteger bandsLeft;
+  private final Map<Image,Sprite> sprites;
+
+  // frame handshake with the workers: the frame counter they wait on, and the
+  // thread to wake once every band is drawn
+  private volatile int frame;
+  private volatile Thread caller;
+  private volatile boolean closed;
+  private final AtomicReference<Throwable> failure;
+
+  // the last framebuffer drawn into, and its pixels
+  private BufferedImage target;
+  private int[] targetPixels;
+
+  // per-frame state shared with the band tasks
+  private int[] raster;
+  private int width, height, bandHeight, background;
+  private Sprite[] frameSprites;
+  private int[] frameLeft, frameTop, frameWidth, frameHeight;
+
+  // particles binned by band: band b owns binItems[binStart[b]..binStart[b+1])
+  private int[] binStart, binFill, binItems;
+
+  // particle count per tile for renderDensity
+  private int[] tileCount;
+
+  /**
+   * Creates a rasterizer that uses one band (and one worker thread) per
+   * available processor.
+   */
+  public ParticleRasterizer() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a rasterizer that splits the framebuffer into the given number of
+   * bands. The first band is drawn on the calling thread, so a single band
+   * starts no workers. Worker threads are daemons, so an idle rasterizer never
+   * keeps the application alive.
+   *
+   * @param bands number of horizontal bands to rasterize in parallel
+   */
+  public ParticleRasterizer(int bands) {
+    bandCount = Math.max(1, bands);
+    sprites = new IdentityHashMap<Image,Sprite>();
+    bandsLeft = new AtomicInteger();
+    failure = new AtomicReference<Throwable>();
+    workers = new Thread[bandCount-1];
+    for (int b = 1; b < bandCount; b++) {
+      workers[b-1] = new Thread(new BandWorker(b), "ParticleRasterizer");
+      workers[b-1].setDaemon(true);
+      workers[b-1].start();
+    }
+    binStart = new int[bandCount+1];
+    binFill = new int[bandCount];
+    binItems = new int[0];
+    frameSprites = new Sprite[0];
+    frameLeft = frameTop = frameWidth = frameHeight = new int[0];
+    tileCount = new int[0];
+  }
+
+  /**
+   * Creates a framebuffer this rasterizer can draw into. The image is backed
+   * by a DataBufferInt holding premultiplied ARGB pixels, which is what
+   * render() expects.
+   *
+   * @param w width of the framebuffer in pixels
+   * @param h height of the framebuffer in pixels
+   * @return a new, blank framebuffer
+   */
+  public static BufferedImage createFramebuffer(int w, int h) {
+    return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+  }
+
+  /**
+   * Clears the framebuffer to the background color and draws the listed
+   * particles as seen through a camera, with their sprites scaled by its
+   * zoom. Each particle is drawn with its current image (so SmartParticles
+   * still switch image while colliding) with the image's top-left corner at
+   * its center minus its radius, exactly where paintComponent would place it.
+   * Particles are drawn in the order listed, so later entries end up on top.
+   *
+   * @param target framebuffer created by createFramebuffer
+   * @param list particles to draw from
+   * @param visible indices into list of the particles to draw
+   * @param camera camera mapping world coordinates to the framebuffer
+   * @param bg background color the framebuffer is cleared to
+   */
+  public void render(BufferedImage target, Particle[] list, IntList visible, Camera camera, Color bg) {
+    draw(target, list, visible, camera.getX(), camera.getY(), camera.getZoom(), false, bg);
+  }
+
+  /**
+   * Clears the framebuffer to the background color and draws each listed
+   * particle as a single pixel, in the average color of its sprite, at the
+   * point where the camera shows its center.
+   *
+   * @param target framebuffer created by createFramebuffer
+   * @param list particles to draw from
+   * @param visible indices into list of the particles to draw
+   * @param camera camera mapping world coordinates to the framebuffer
+   * @param bg background color the framebuffer is cleared to
+   */
+  public void renderPoints(BufferedImage target, Particle[] list, IntList visible, Camera camera, Color bg) {
+    draw(target, list, visible, camera.getX(), camera.getY(), camera.getZoom(), true, bg);
+  }
+
+  /**
+   * Clears the framebuffer to the background color, counts the listed
+   * particles falling into each square tile of the view, and shades every
+   * non-empty tile in gray, brighter for more particles. The scale is the
+   * square root of the count over the fullest tile's count, so that sparse
+   * regions stay visible next to dense ones. Drawn on the calling thread;
+   * there is far too little work for the bands to pay off.
+   *
+   * @param target framebuffer created by createFramebuffer
+   * @param list particles to draw from
+   * @param visible indices into list of the particles to count
+   * @param camera camera mapping world coordinates to the framebuffer
+   * @param tile side length of a tile, in screen pixels
+   * @param bg background color the framebuffer is cleared to
+   */
+  public void renderDensity(BufferedImage target, Particle[] list, IntList visible, Camera camera,
+      int tile, Color bg) {
+    int[] pixels = pixelsOf(target);
+    int w = target.getWidth();
+    int h = target.getHeight();
+    int tilesX = (w + tile - 1) / tile;
+    int tilesY = (h + tile - 1) / tile;
+    if (tileCount.length < tilesX*tilesY)
+      tileCount = new int[tilesX*tilesY];
+    Arrays.fill(tileCount, 0, tilesX*tilesY, 0);
+
+    int max = 0;
+    for (int k = 0; k < visible.size(); k++) {
+      Particle p = list[visible.get(k)];
+      int tx = (int) Math.floor(camera.toScreenX(p.x) / tile);
+      int ty = (int) Math.floor(camera.toScreenY(p.y) / tile);
+      if (tx < 0 || tx >= tilesX || ty < 0 || ty >= tilesY)
+        continue;
+      max = Math.max(max, ++tileCount[ty*tilesX + tx]);
+    }
+
+    int back = premultiply(bg.getRGB());
+    for (int ty = 0; ty < tilesY; ty++) {
+      for (int tx = 0; tx < tilesX; tx++) {
+        int c = tileCount[ty*tilesX + tx];
+        int color = back;
+        if (c > 0) {
+          int level = (int) Math.round(255*Math.sqrt((double) c / max));
+          color = 0xff000000 | (level << 16) | (level << 8) | level;
+        }
+        int x1 = Math.min(w, (tx+1)*tile);
+        int y1 = Math.min(h, (ty+1)*tile);
+        for (int y = ty*tile; y < y1; y++)
+          Arrays.fill(pixels, y*w + tx*tile, y*w + x1, color);
+      }
+    }
+  }
+
+  /**
+   * Stops the worker threads. The rasterizer cannot draw sprites or points
+   * afterwards; calling close more than once does no harm.
+   */
+  public void close() {
+    closed = true;
+    for (int w = 0; w < workers.length; w++)
+      LockSupport.unpark(workers[w]);
+  }
+
+  /**
+   * Shared body of the render methods: sets up the frame, bins the particles
+   * and rasterizes every band, in parallel when there is more than one. The
+   * calling thread always waits for every worker to finish, even if its own
+   * band throws, and then rethrows the first failure of any band. If its own
+   * band threw, that exception is the one that leaves, and any failure of a
+   * worker's band is dropped with it, so that no later frame reports it.
+   *
+   * @param visible indices of the particles to draw
+   * @param originX world x-coordinate drawn at the framebuffer's left edge
+   * @param originY world y-coordinate drawn at the framebuffer's top edge
+   * @param scale framebuffer pixels per world pixel
+   * @param points true to draw single pixels instead of sprites
+   */
+  private void draw(BufferedImage target, Particle[] list, IntList visible,
+      double originX, double originY, double scale, boolean points, Color bg) {
+    if (closed)
+      throw new IllegalStateException("rasterizer has been closed");
+    raster = pixelsOf(target);
+    width = target.getWidth();
+    height = target.getHeight();
+    background = premultiply(bg.getRGB());
+    bandHeight = (height + bandCount - 1) / bandCount;
+
+    binParticles(list, visible, originX, originY, scale, points);
+
+    if (workers.length == 0) {
+      drawBand(0);
+      return;
+    }
+    caller = Thread.currentThread();
+    bandsLeft.set(workers.length);
+    frame++;
+    for (int w = 0; w < workers.length; w++)
+      LockSupport.unpark(workers[w]);
+    Throwable t;
+    try {
+      drawBand(0);
+    }
+    finally {
+      while (bandsLeft.get() > 0)
+        LockSupport.park(this);
+      t = failure.getAndSet(null);
+    }
+    if (t instanceof RuntimeException)
+      throw (RuntimeException) t;
+    if (t instanceof Error)
+      throw (Error) t;
+    if (t != null)
+      throw new RuntimeException(t);
+  }
+
+  /**
+   * Looks up each particle's sprite and where, and at what size, it lands in
+   * the framebuffer, then performs a two-pass counting sort of draw positions
+   * into the bands each sprite covers vertically. Particles entirely outside
+   * the framebuffer are dropped here and never seen by any band. The arrays
+   * grow by at least doubling, so a count that creeps up a little every frame
+   * does not mean a new array every frame.
+   */
+  private void binParticles(Particle[] list, IntList visible,
+      double originX, double originY, double scale, boolean points) {
+    int count = visible.size();
+    if (frameSprites.length < count) {
+      int room = Math.max(count, 2*frameSprites.length);
+      frameSprites = new Sprite[room];
+      frameLeft = new int[room];
+      frameTop = new int[room];
+      frameWidth = new int[room];
+      frameHeight = new int[room];
+    }
+    Arrays.fill(binStart, 0);
+
+    int total = 0;
+    for (int k = 0; k < count; k++) {
+      Particle p = list[visible.get(k)];
+      Sprite s = spriteFor(p.getImage());
+      frameSprites[k] = s;
+      if (s == null)
+        continue;
+      double cx = (p.x - originX)*scale;
+      double cy = (p.y - originY)*scale;
+      if (points) {
+        frameSprites[k] = s = s.dot;
+        frameLeft[k] = (int) Math.floor(cx);
+        frameTop[k] = (int) Math.floor(cy);
+      }
+      else {
+        double r = p.getRadius()*scale;
+        frameLeft[k] = (int) Math.floor(cx - r);
+        frameTop[k] = (int) Math.floor(cy - r);
+      }
+      frameWidth[k] = (scale == 1 || points)? s.w : Math.max(1, (int) Math.round(s.w*scale));
+      frameHeight[k] = (scale == 1 || points)? s.h : Math.max(1, (int) Math.round(s.h*scale));
+      if (offscreen(k)) {
+        frameSprites[k] = null;
+        continue;
+      }
+      int b0 = Math.max(0, frameTop[k]) / bandHeight;
+      int b1 = Math.min(height - 1, frameTop[k] + frameHeight[k] - 1) / bandHeight;
+      for (int b = b0; b <= b1; b++)
+        binStart[b+1]++;
+      total += b1 - b0 + 1;
+    }
+
+    for (int b = 0; b < bandCount; b++)
+      binStart[b+1] += binStart[b];
+    if (binItems.length < total)
+      binItems = new int[Math.max(total, 2*binItems.length)];
+    System.arraycopy(binStart, 0, binFill, 0, bandCount);
+
+    for (int k = 0; k < count; k++) {
+      if (frameSprites[k] == null)
+        continue;
+      int b0 = Math.max(0, frameTop[k]) / bandHeight;
+      int b1 = Math.min(height - 1, frameTop[k] + frameHeight[k] - 1) / bandHeight;
+      for (int b = b0; b <= b1; b++)
+        binItems[binFill[b]++] = k;
+    }
+  }
+
+  /**
+   * Returns true if the k-th draw position lies entirely outside the
+   * framebuffer.
+   */
+  private boolean offscreen(int k) {
+    return frameLeft[k] >= width || frameLeft[k] + frameWidth[k] <= 0
+        || frameTop[k] >= height || frameTop[k] + frameHeight[k] <= 0;
+  }
+
+  /**
+   * Clears one band to the background and composites every particle binned
+   * into it, clipped to the band's rows and the framebuffer's columns.
+   *
+   * @param b index of the band to draw
+   */
+  private void drawBand(int b) {
+    int rowStart = b * bandHeight;
+    int rowEnd = Math.min(height, rowStart + bandHeight);
+    if (rowStart >= rowEnd)
+      return;
+    Arrays.fill(raster, rowStart*width, rowEnd*width, background);
+
+    for (int k = binStart[b]; k < binStart[b+1]; k++) {
+      int i = binItems[k];
+      Sprite s = frameSprites[i];
+      int left = frameLeft[i];
+      int top = frameTop[i];
+      int dw = frameWidth[i];
+      int dh = frameHeight[i];
+      int y0 = Math.max(rowStart, top);
+      int y1 = Math.min(rowEnd, top + dh);
+      int x0 = Math.max(0, left);
+      int x1 = Math.min(width, left + dw);
+      if (dw == s.w && dh == s.h) {
+        for (int y = y0; y < y1; y++) {
+          int src = (y - top)*s.w + (x0 - left);
+          int dst = y*width + x0;
+          for (int x = x0; x < x1; x++, src++, dst++)
+            composite(s.pixels[src], dst);
+        }
+      }
+      else {
+        // nearest neighbour scaling, stepping through the source in 16.16 fixed point
+        int stepX = (s.w << 16) / dw;
+        int stepY = (s.h << 16) / dh;
+        for (int y = y0; y < y1; y++) {
+          int row = (((y - top)*stepY) >> 16)*s.w;
+          int dst = y*width + x0;
+          for (int x = x0; x < x1; x++, dst++)
+            composite(s.pixels[row + (((x - left)*stepX) >> 16)], dst);
+        }
+      }
+    }
+  }
+
+  /**
+   * Composites one premultiplied source pixel over the raster pixel at dst.
+   */
+  private void composite(int sp, int dst) {
+    int sa = sp >>> 24;
+    if (sa == 255)
+      raster[dst] = sp;
+    else if (sa != 0)
+      raster[dst] = blend(sp, raster[dst], 255 - sa);
+  }
+
+  /**
+   * Premultiplied source-over: dst' = src + dst*(1-srcAlpha), channel by
+   * channel. Red and blue are scaled together in one multiply, then alpha
+   * and green in another.
+   */
+  private static int blend(int src, int dst, int inv) {
+    int rb = ((dst & 0x00ff00ff) * inv) >>> 8 & 0x00ff00ff;
+    int ag = ((dst >>> 8) & 0x00ff00ff) * inv & 0xff00ff00;
+    return src + (rb | ag);
+  }
+
+  /**
+   * Converts a straight-alpha ARGB pixel to premultiplied ARGB.
+   */
+  private static int premultiply(int argb) {
+    int a = argb >>> 24;
+    if (a == 255)
+      return argb;
+    int r = ((argb >> 16) & 0xff) * a / 255;
+    int g = ((argb >> 8) & 0xff) * a / 255;
+    int b = (argb & 0xff) * a / 255;
+    return (a << 24) | (r << 16) | (g << 8) | b;
+  }
+
+  /**
+   * Returns the int array behind a framebuffer's pixels. Digging it out of
+   * the raster is not free (and allocates now and then inside the library),
+   * so the array of the last framebuffer is kept.
+   */
+  private int[] pixelsOf(BufferedImage image) {
+    if (image != target) {
+      targetPixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      target = image;
+    }
+    return targetPixels;
+  }
+
+  /**
+   * Returns the cached premultiplied pixels for an ImageIcon, converting the
+   * icon's image the first time it is seen. Returns null for images that
+   * have not finished loading (zero width or height); those particles are
+   * skipped until their image is available. Only called from the thread
+   * calling render, so the cache needs no synchronization.
+   */
+  private Sprite spriteFor(ImageIcon icon) {
+    Image im = icon.getImage();
+    Sprite s = sprites.get(im);
+    if (s == null) {
+      int w = icon.getIconWidth();
+      int h = icon.getIconHeight();
+      if (w <= 0 || h <= 0)
+        return null;
+      BufferedImage buf = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+      Graphics2D g = buf.createGraphics();
+      g.drawImage(im, 0, 0, null);
+      g.dispose();
+      s = new Sprite(w, h, ((DataBufferInt) buf.getRaster().getDataBuffer()).getData(), true);
+      sprites.put(im, s);
+    }
+    return s;
+  }
+
+  /**
+   * Sprite holds the premultiplied pixels of one particle image, row by row,
+   * along with a one pixel sprite in the image's average color, used when
+   * drawing particles as points. The average is taken over the pixels that
+   * are not fully transparent and is made fully opaque.
+   */
+  private static class Sprite {
+    final int w, h;
+    final int[] pixels;
+    final Sprite dot;
+
+    Sprite(int w, int h, int[] pixels, boolean withDot) {
+      this.w = w;
+      this.h = h;
+      this.pixels = pixels;
+      if (withDot) {
+        long r = 0, g = 0, b = 0, a = 0;
+        for (int i = 0; i < pixels.length; i++) {
+          int pa = pixels[i] >>> 24;
+          if (pa == 0)
+            continue;
+          // undo the premultiply so faint edges count as much as solid pixels
+          r += ((pixels[i] >> 16) & 0xff)*255/pa;
+          g += ((pixels[i] >> 8) & 0xff)*255/pa;
+          b += (pixels[i] & 0xff)*255/pa;
+          a++;
+        }
+        int avg = (a == 0)? 0 : 0xff000000 | (int) (r/a) << 16 | (int) (g/a) << 8 | (int) (b/a);
+        dot = new Sprite(1, 1, new int[] {avg}, false);
+      }
+      else
+        dot = null;
+    }
+  }
+
+  /**
+   * BandWorker owns a single band for the life of the rasterizer: it sleeps
+   * until the frame counter moves, draws its band, and if it was the last
+   * band outstanding wakes the thread waiting in draw. Parking can wake up
+   * spuriously, which is why both sides wait in a loop on the real condition.
+   * Whatever drawing the band throws is kept for draw to rethrow, and the band
+   * is counted as done either way, so the waiting thread always wakes. The
+   * worker returns once the rasterizer is closed.
+   */
+  private class BandWorker implements Runnable {
+    private final int band;
+
+    BandWorker(int b) {
+      band = b;
+    }
+
+    public void run() {
+      int drawn = 0;
+      while (true) {
+        while (frame == drawn && !closed)
+          LockSupport.park(this);
+        if (closed)
+          return;
+        drawn = frame;
+        try {
+          drawBand(band);
+        }
+        catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+        finally {
+          if (bandsLeft.decrementAndGet() == 0)
+            LockSupport.unpark(caller);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,836 @@
+/**
+ * ParticleWorld holds every Particle in the simulation along with the walls
+ * that contain them, and advances them frame by frame. It used to live inside
+ * ReboundPanel's timer listener; it was pulled out so that the simulation can
+ * be stepped, measured and queried without a panel on screen.
+ * <br><br>
+ * The world keeps a HierarchicalSpatialHash of its particles, so that
+ * particles of very different sizes each get cells that suit them. The step
+ * uses it to find which particles are close enough to be worth an
+ * intersection test, and the same index answers the query methods: picking
+ * the particle under a point, finding everything overlapping a circle or a
+ * rectangle, and finding the k particles nearest a point. Queries return
+ * indices through an IntList the caller passes in and reuses, so that tools
+ * probing the world many times a frame do not allocate.
+ * <br><br>
+ * The index is built exactly once per frame, at the end of step() once every
+ * particle has moved, so the painting that follows a step and the next step's
+ * own collision search both use it as it stands; neither costs a pass over
+ * every particle. Only when particles have been added, removed or moved from
+ * outside since then is it rebuilt, by whichever query or step comes next.
+ * For the same reason the world remembers which particles it has set
+ * colliding, so that clearColliding() only visits those.
+ * <br><br>
+ * Particles are stored in an array that doubles whenever it fills up, so there
+ * is no fixed limit on how many a world can hold. Removing a particle moves the
+ * last one into its slot, which means removal changes the index of exactly one
+ * other particle.
+ * <br><br>
+ * Particles are added in whatever order the user clicks them, so particles
+ * that are neighbours in space end up scattered through the array and through
+ * memory, and every neighbour test in the step jumps around. To keep
+ * neighbours close, the step periodically re-sorts the particles along a
+ * Z-order (Morton) curve over the cells of the finest index level. Re-sorting
+ * the array alone does little, since the Particle objects stay wherever they
+ * were allocated, so each particle's state is copied into another object as it
+ * is placed. Those objects are the ones the previous sort left behind, taken
+ * in the order that sort placed them in; the first sort clones them all in one
+ * go, and objects allocated one after another sit next to each other in
+ * memory, so from then on every sort writes the particles into memory in
+ * sorted order without allocating. A particle is only ever copied into an
+ * object of its own class, so Particles and SmartParticles can be mixed. This
+ * happens every REORDER_INTERVAL steps, or sooner once the share of pairs
+ * tested in a step that lie more than LOCALITY_WINDOW apart in the array has
+ * grown LOCALITY_THRESHOLD above what it was straight after the last sort,
+ * but never sooner than MIN_REORDER_INTERVAL steps after it. A world that has
+ * not been sorted yet has nothing to compare against, so it takes its first
+ * step's share as the baseline.
+ * <br><br>
+ * Since re-sorting changes every index, and replaces every Particle object,
+ * anything that needs to keep hold of a particle across steps should ask for
+ * its handle with getHandle(i) and turn it back into the current index with
+ * getIndex(handle). A handle stays valid until its particle is removed, after
+ * which it may be given to a new particle.
+ * <br><br>
+ * Anything that keeps its own copy of particle state, like the event-driven
+ * engine, can tell when the world has been changed from outside by watching
+ * getModCount(): it goes up whenever a particle is added, removed, moved or
+ * stopped through the world, and whenever the particles are re-sorted.
+ * <br><br>
+ * Explanation of constants: <br>
+ * REORDER_INTERVAL is the most steps allowed between re-sorts. On the 100,000
+ * particle benchmark scenes, re-sorting took between a fifth and a third off
+ * the step time, and locality has mostly gone again by 64 steps. On 20,000
+ * particles, which fit in cache either way, it makes little difference. <br>
+ * MIN_REORDER_INTERVAL is the fewest steps allowed between re-sorts that
+ * locality triggers. Where all particles are small and fast the share of far
+ * pairs climbs by about 4 points a step, so the threshold alone fired every
+ * 8 steps; on 20,000 particles that gained nothing measurable, while on the
+ * 100,000 particle 100:1 scene waiting 16 steps gave up nothing either. <br>
+ * LOCALITY_WINDOW and LOCALITY_THRESHOLD decide when locality has degraded
+ * enough to re-sort early. Straight after a sort, between 3 and 25 percent of
+ * the pairs tested lie more than LOCALITY_WINDOW apart, depending on how mixed
+ * the sizes are, since the Z-order curve jumps where it turns between quadrants.
+ *
+ * @author Kevin Roark <ker2143@columbia.edu> (the step, moved here from ReboundPanel)
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class ParticleWorld {
+
+  static final int REORDER_INTERVAL = 64;
+  static final int MIN_REORDER_INTERVAL = 16;
+  static final int LOCALITY_WINDOW = 256;
+  static final double LOCALITY_THRESHOLD = 0.25;
+
+  private final int width, height;
+  private final CollisionDiagnostics diagnostics;
+  private final HierarchicalSpatialHash index;
+  private final IntList candidates;
+  private final IntList collided;
+
+  private Particle[] pList;
+  private int numParticles, modCount;
+  private boolean indexDirty;
+
+  // handle table: the handle of each index, the index of each handle (-1 once
+  // its particle is removed), and the handles free for reuse
+  private int[] handleOf, indexOf, freeHandles;
+  private int numHandles, numFree;
+
+  // re-sorting: steps since the last sort, the current interval (0 for never),
+  // this step's count of tested and far apart pairs, the share of far apart
+  // pairs straight after the last sort (-1 until measured), and scratch space
+  private int stepsSinceReorder, reorderInterval;
+  private long testedPairs, farPairs;
+  private double baselineFar;
+  private long[] sortKeys;
+  private Particle[] sortedList;
+  private int[] sortedHandles;
+
+  // spare objects for re-sorting to copy particles into: the objects the
+  // previous sort replaced, in the order it placed them, and for each class of
+  // particle seen, how far into them this sort has looked for that class
+  private Particle[] spares;
+  private int numSpares, numSpareClasses;
+  private Class<?>[] spareClass;
+  private int[] spareCursor;
+
+  // scratch space for nearest(): the best k found so far, closest first
+  private int[] nearIndex;
+  private double[] nearDistSq;
+
+  /**
+   * Creates an empty world bounded by walls at x = 0, y = 0, x = w and y = h.
+   *
+   * @param w width of the world in pixels
+   * @param h height of the world in pixels
+   */
+  public ParticleWorld(int w, int h) {
+    width = w;
+    height = h;
+    diagnostics = new CollisionDiagnostics(w, h);
+    index = new HierarchicalSpatialHash();
+    candidates = new IntList();
+    collided = new IntList();
+    pList = new Particle[64];
+    numParticles = 0;
+    indexDirty = true;
+    handleOf = new int[64];
+    indexOf = new int[64];
+    freeHandles = new int[64];
+    numHandles = numFree = 0;
+    reorderInterval = REORDER_INTERVAL;
+    baselineFar = -1;
+    sortKeys = new long[0];
+    sortedList = new Particle[0];
+    sortedHandles = new int[0];
+    spares = new Particle[0];
+    numSpares = numSpareClasses = 0;
+    spareClass = new Class<?>[2];
+    spareCursor = new int[2];
+    nearIndex = new int[0];
+    nearDistSq = new double[0];
+  }
+
+  /**
+   * Adds a particle to the world and reports it to the diagnostics, so that
+   * the energy it brings with it is not counted as drift.
+   *
+   * @param p particle to add
+   * @return the index the particle was stored at
+   */
+  public int add(Particle p) {
+    if (numParticles == pList.length) {
+      Particle[] bigger = new Particle[pList.length*2];
+      System.arraycopy(pList, 0, bigger, 0, numParticles);
+      pList = bigger;
+      int[] biggerHandles = new int[handleOf.length*2];
+      System.arraycopy(handleOf, 0, biggerHandles, 0, numParticles);
+      handleOf = biggerHandles;
+    }
+    int h;
+    if (numFree > 0)
+      h = freeHandles[--numFree];
+    else {
+      if (numHandles == indexOf.length) {
+        int[] bigger = new int[indexOf.length*2];
+        System.arraycopy(indexOf, 0, bigger, 0, numHandles);
+        indexOf = bigger;
+        bigger = new int[freeHandles.length*2];
+        System.arraycopy(freeHandles, 0, bigger, 0, numFree);
+        freeHandles = bigger;
+      }
+      h = numHandles++;
+    }
+    handleOf[numParticles] = h;
+    indexOf[h] = numParticles;
+    pList[numParticles] = p;
+    if (p.isColliding())
+      collided.add(numParticles);
+    diagnostics.recordAdded(p);
+    indexDirty = true;
+    modCount++;
+    return numParticles++;
+  }
+
+  /**
+   * Removes the particle at an index. The last particle in the world is
+   * moved into the emptied slot.
+   *
+   * @param i index of the particle to remove
+   */
+  public void remove(int i) {
+    diagnostics.recordRemoved(pList[i]);
+    numParticles--;
+    freeHandles[numFree++] = handleOf[i];
+    indexOf[handleOf[i]] = -1;
+    pList[i] = pList[numParticles];
+    pList[numParticles] = null;
+    handleOf[i] = handleOf[numParticles];
+    if (i < numParticles) {
+      indexOf[handleOf[i]] = i;
+      if (pList[i].isColliding())
+        collided.add(i);
+    }
+    indexDirty = true;
+    modCount++;
+  }
+
+  /**
+   * Moves the particle at an index to a new location, for example while it
+   * is being dragged.
+   *
+   * @param i index of the particle to move
+   * @param x new x-coordinate of its center
+   * @param y new y-coordinate of its center
+   */
+  public void moveTo(int i, int x, int y) {
+    pList[i].setLocation(x, y);
+    indexDirty = true;
+    modCount++;
+  }
+
+  /**
+   * Brings the particle at an index to rest. The kinetic energy it loses is
+   * reported to the diagnostics as deliberately removed.
+   *
+   * @param i index of the particle to stop
+   */
+  public void stop(int i) {
+    diagnostics.recordRemoved(pList[i]);
+    pList[i].setVelocity(Particle.NO_MOVEMENT, 0);
+    modCount++;
+  }
+
+  /**
+   * Tells the world that its particles have been moved by something other
+   * than step(), such as another engine, at the end of that engine's frame.
+   * The spatial index is rebuilt straight away, as step() does, so that it is
+   * ready for painting and queries. Unlike the methods above this does not
+   * count as a modification.
+   */
+  public void particlesMoved() {
+    index.build(pList, numParticles);
+    indexDirty = false;
+  }
+
+  /**
+   * Returns the stable handle of the particle at an index. Unlike the index,
+   * the handle does not change when other particles are removed or when the
+   * particles are re-sorted.
+   *
+   * @param i index of the particle
+   * @return its handle
+   */
+  public int getHandle(int i) {
+    return handleOf[i];
+  }
+
+  /**
+   * Returns the current index of the particle with a handle, or -1 if that
+   * particle has been removed.
+   *
+   * @param handle handle returned by getHandle
+   * @return the particle's index, or -1
+   */
+  public int getIndex(int handle) {
+    return indexOf[handle];
+  }
+
+  /**
+   * Sets how many steps pass between re-sorts of the particle array. Locality
+   * checks can still trigger an earlier sort, unless re-sorting is switched off
+   * altogether with 0.
+   *
+   * @param steps steps between re-sorts, or 0 never to re-sort
+   */
+  public void setReorderInterval(int steps) {
+    reorderInterval = steps;
+  }
+
+  /**
+   * Re-sorts the particles by the Z-order (Morton) key of the cell of the
+   * finest index level that holds their center, so that particles close in
+   * space end up close in the array, and copies each into a spare object in
+   * that order so they end up close in memory too. Stable handles follow
+   * their particles, as does the list of particles set colliding; indices and
+   * Particle references do not. Nothing is allocated once the arrays have
+   * grown to fit and every particle has been through a sort.
+   */
+  public void reorder() {
+    ensureIndex();
+    double size = index.getCellSize();
+    // the new order must fit the same capacity as the arrays it replaces
+    if (sortKeys.length < numParticles)
+      sortKeys = new long[pList.length];
+    if (sortedList.length != pList.length)
+      sortedList = new Particle[pList.length];
+    if (sortedHandles.length != handleOf.length)
+      sortedHandles = new int[handleOf.length];
+    for (int i = 0; i < numParticles; i++) {
+      int cx = (int) Math.max(0, Math.min(0xffff, Math.floor(pList[i].x / size)));
+      int cy = (int) Math.max(0, Math.min(0xffff, Math.floor(pList[i].y / size)));
+      sortKeys[i] = ((SpatialHash.mortonKey(cx, cy) & 0xffffffffL) << 32) | i;
+    }
+    sort(sortKeys, 0, numParticles-1);
+
+    for (int c = 0; c < numSpareClasses; c++)
+      spareCursor[c] = 0;
+    for (int k = 0; k < numParticles; k++) {
+      int i = (int) sortKeys[k];
+      Particle copy = spareFor(pList[i]);
+      copy.copyFrom(pList[i]);
+      sortedList[k] = copy;
+      sortedHandles[k] = handleOf[i];
+      indexOf[handleOf[i]] = k;
+    }
+    // handleOf still holds the old order here and indexOf the new one
+    for (int k = 0; k < collided.size(); k++) {
+      int i = collided.get(k);
+      if (i < numParticles)
+        collided.set(k, indexOf[handleOf[i]]);
+    }
+    // the objects just copied from are the next sort's spares, and the array
+    // that held this sort's spares is the next sort's scratch
+    Particle[] oldSpares = spares;
+    spares = pList;
+    pList = sortedList;
+    sortedList = oldSpares;
+    for (int i = 0; i < numSpares; i++)
+      sortedList[i] = null;
+    numSpares = numParticles;
+    int[] oldHandles = handleOf;
+    handleOf = sortedHandles;
+    sortedHandles = oldHandles;
+
+    stepsSinceReorder = 0;
+    baselineFar = -1;
+    indexDirty = true;
+    modCount++;
+  }
+
+  /**
+   * Returns the next spare object of the same class as a particle, for
+   * reorder to copy it into. Each class has its own cursor moving through the
+   * spares, so every spare is handed out at most once. A particle added since
+   * the last sort can find no spare left for it and is given a clone instead.
+   */
+  private Particle spareFor(Particle p) {
+    Class<?> type = p.getClass();
+    int c = 0;
+    while (c < numSpareClasses && spareClass[c] != type)
+      c++;
+    if (c == numSpareClasses) {
+      if (c == spareClass.length) {
+        Class<?>[] biggerClasses = new Class<?>[c*2];
+        System.arraycopy(spareClass, 0, biggerClasses, 0, c);
+        spareClass = biggerClasses;
+        int[] biggerCursors = new int[c*2];
+        System.arraycopy(spareCursor, 0, biggerCursors, 0, c);
+        spareCursor = biggerCursors;
+      }
+      spareClass[c] = type;
+      spareCursor[c] = 0;
+      numSpareClasses++;
+    }
+
+    int s = spareCursor[c];
+    while (s < numSpares && spares[s].getClass() != type)
+      s++;
+    if (s == numSpares) {
+      spareCursor[c] = s;
+      return (Particle) p.clone();
+    }
+    spareCursor[c] = s+1;
+    return spares[s];
+  }
+
+  /**
+   * Sorts keys[lo..hi] into ascending order in place. Like IntList.sort this
+   * is a plain quicksort with insertion sort for short runs, since
+   * Arrays.sort can allocate scratch space, and it recurses only into the
+   * shorter side.
+   */
+  private static void sort(long[] keys, int lo, int hi) {
+    while (hi - lo > 16) {
+      int mid = (lo + hi) >>> 1;
+      if (keys[mid] < keys[lo])
+        swap(keys, mid, lo);
+      if (keys[hi] < keys[lo])
+        swap(keys, hi, lo);
+      if (keys[hi] < keys[mid])
+        swap(keys, hi, mid);
+      long pivot = keys[mid];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (keys[i] < pivot)
+          i++;
+        while (keys[j] > pivot)
+          j--;
+        if (i <= j)
+          swap(keys, i++, j--);
+      }
+      if (j - lo < hi - i) {
+        sort(keys, lo, j);
+        lo = i;
+      }
+      else {
+        sort(keys, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo+1; i <= hi; i++) {
+      long v = keys[i];
+      int j = i-1;
+      while (j >= lo && keys[j] > v) {
+        keys[j+1] = keys[j];
+        j--;
+      }
+      keys[j+1] = v;
+    }
+  }
+
+  /**
+   * Swaps two keys.
+   */
+  private static void swap(long[] keys, int a, int b) {
+    long t = keys[a];
+    keys[a] = keys[b];
+    keys[b] = t;
+  }
+
+  /**
+   * Returns a count of the changes made through add, remove, moveTo and stop,
+   * and of re-sorts. Stepping does not change it otherwise.
+   *
+   * @return number of modifications so far
+   */
+  public int getModCount() {
+    return modCount;
+  }
+
+  /**
+   * Advances the world by one frame. Every particle is checked against the
+   * walls, checked for collisions with nearby particles, and translated by one
+   * time-step of its velocity. The spatial index used to find the nearby
+   * particles is the one the previous step left, unless the world has been
+   * changed since, in which case it is rebuilt first.
+   * <br><br>
+   * Each particle is handed to the diagnostics at the end of its iteration,
+   * and the diagnostics are published at the end of the step. A particle's
+   * velocity can still change after its iteration, when a smaller particle
+   * later in the array collides with it; that change is reported to the
+   * diagnostics as it happens.
+   * <br><br>
+   * After the particles have moved, the array is re-sorted if it is time to,
+   * or if too many of the pairs tested this step were far apart in it, and
+   * then the index is built from where the particles have ended up.
+   */
+  public void step() {
+    ensureIndex();
+    testedPairs = farPairs = 0;
+    for (int i=0; i < numParticles; i++) {
+      detectWallCollision(i);
+      detectInterParticleCollisions(i);
+      pList[i].translate();
+      diagnostics.recordParticle(pList[i]);
+    }
+    diagnostics.publish();
+
+    double far = (testedPairs > 0)? (double) farPairs / testedPairs : 0;
+    if (baselineFar < 0)
+      baselineFar = far;
+    stepsSinceReorder++;
+    if (reorderInterval > 0 && (stepsSinceReorder >= reorderInterval
+        || (stepsSinceReorder >= MIN_REORDER_INTERVAL && far > baselineFar + LOCALITY_THRESHOLD)))
+      reorder();
+    index.build(pList, numParticles);
+    indexDirty = false;
+  }
+
+  /**
+   * Private method used to check each particle for collisions with every
+   * subsequent particle. To prevent redundancy, particles only check for
+   * collisions with other particles located after them in the array of
+   * Particles (because if p1 checked with p2, p2 needs not to check with p1),
+   * and once a particle has detected collision with one particle, it stops
+   * checking for collision with another particle. In theory, a single particle
+   * could collide with two other particles at the exact same moment, but in
+   * practice this doesn't seem to be an issue, and only accounting for a single
+   * collision for each particle for frame reduces computation a good bit.
+   * Particle's methods for detecting collisions and responding to them are called
+   * for simplicity. The penetration depth of every collision is passed on
+   * to the diagnostics.
+   * <br><br>
+   * Only particles the spatial index files near this one are tested, and
+   * only on this particle's level of the index and the coarser ones above it:
+   * a pair of different sizes is found from its smaller particle alone, so a
+   * larger particle found that way is tested even if it comes earlier in the
+   * array, in which case its change of velocity is reported to the diagnostics
+   * separately since it has already been recorded. The index was built from
+   * positions at the start of the step, and earlier collisions this step may
+   * have nudged a particle a few pixels since then; a pair missed because of
+   * that is simply caught on the next step, when the index is rebuilt.
+   * Every pair tested is also counted towards the step's locality measure,
+   * and each particle newly set colliding is remembered for clearColliding().
+   *
+   * @param i index of pList containing the particle that should check collisions
+   * with every subsequent particle
+   */
+  private void detectInterParticleCollisions(int i) {
+    Particle p = pList[i];
+    double r = p.getRadius();
+    int level = index.getLevel(i);
+    candidates.clear();
+    index.collectFrom(level, p.x-r, p.y-r, p.x+r, p.y+r, candidates);
+    for (int k = 0; k < candidates.size(); k++) {
+      int c = candidates.get(k);
+      if (c <= i && index.getLevel(c) <= level)
+        continue;
+      testedPairs++;
+      if (Math.abs(c - i) > LOCALITY_WINDOW)
+        farPairs++;
+      if (p.isColliding())
+        continue;
+      Particle other = pList[c];
+      boolean wasColliding = other.isColliding();
+      if (p.intersects(other)) {
+        collided.add(i);
+        if (!wasColliding)
+          collided.add(c);
+        double oldVx = other.getVx();
+        double oldVy = other.getVy();
+        diagnostics.recordCollision(p.elasticCollision(other));
+        if (c < i)
+          diagnostics.recordVelocityChange(other, oldVx, oldVy);
+      }
+    }
+  }
+
+  /**
+   * Private method called to check if a particle runs into the walls of the
+   * world. If it does, its x or y velocity is appropriately
+   * reversed. Then, because the time frames are discrete, the particle could overlap
+   * with the wall, and continually reverse its direction, getting stuck.
+   * This method places the balls completely within the world whenever they
+   * overlap in order to prevent sticking.
+   * <br>
+   * Wall collisions deliberately do not set particles to colliding. Only collisions
+   * with other particles count as "colliding" for the particles. This is done
+   * so that interparticle collisions are not ignored because of wall collisions,
+   * and so that smart particles do not change images when they hit a wall; in this
+   * design it seems more natural for smart particles to change image when they hit
+   * other particles only.
+   * <br>
+   * Each bounce's impulse, the mass times the change in velocity, is
+   * recorded with the diagnostics against the wall that caused it.
+   *
+   * @param i index of pList containing Particle to put in frame
+   */
+  private void detectWallCollision(int i) {
+    int x = pList[i].x;
+    int y = pList[i].y;
+    int r = (int) Math.round(pList[i].getRadius());
+    double m = pList[i].getMass();
+    if (x<=r) {		    // left wall
+      pList[i].setLocation(r+1,y);
+      diagnostics.recordWallImpulse(CollisionDiagnostics.LEFT, -2*m*pList[i].getVx());
+      pList[i].setVx(-1*pList[i].getVx());
+    }
+    else if (x>=(width-r)) {	    // right wall
+      pList[i].setLocation(width-r-1,y);
+      diagnostics.recordWallImpulse(CollisionDiagnostics.RIGHT, -2*m*pList[i].getVx());
+      pList[i].setVx(-1*pList[i].getVx());
+    }
+
+    x = pList[i].x; 		   // update x to current x location
+
+    if (y<=r) {                  // top wall
+      pList[i].setLocation(x,r+1);
+      diagnostics.recordWallImpulse(CollisionDiagnostics.TOP, -2*m*pList[i].getVy());
+      pList[i].setVy(-1*pList[i].getVy());
+    }
+    else if (y>=(height-r)) {    // bottom wall
+      pList[i].setLocation(x,height-r-1);
+      diagnostics.recordWallImpulse(CollisionDiagnostics.BOTTOM, -2*m*pList[i].getVy());
+      pList[i].setVy(-1*pList[i].getVy());
+    }
+  }
+
+  /**
+   * Returns the index of the particle under a point, or -1 if the point is
+   * not inside any particle. Where particles overlap, the one with the highest
+   * index wins, since it is the one painted on top.
+   *
+   * @param x x-coordinate of the point
+   * @param y y-coordinate of the point
+   * @return index of the topmost particle containing the point, or -1
+   */
+  public int pick(double x, double y) {
+    ensureIndex();
+    candidates.clear();
+    index.collect(x, y, x, y, candidates);
+    int hit = -1;
+    for (int k = 0; k < candidates.size(); k++) {
+      int c = candidates.get(k);
+      double r = pList[c].getRadius();
+      if (c > hit && pList[c].distanceSq(x, y) <= r*r)
+        hit = c;
+    }
+    return hit;
+  }
+
+  /**
+   * Finds every particle that overlaps a circle. out is cleared first.
+   *
+   * @param x x-coordinate of the circle's center
+   * @param y y-coordinate of the circle's center
+   * @param r radius of the circle
+   * @param out list the matching indices are written to
+   * @return number of particles found
+   */
+  public int queryCircle(double x, double y, double r, IntList out) {
+    ensureIndex();
+    candidates.clear();
+    index.collect(x-r, y-r, x+r, y+r, candidates);
+    out.clear();
+    for (int k = 0; k < candidates.size(); k++) {
+      int c = candidates.get(k);
+      double reach = r + pList[c].getRadius();
+      if (pList[c].distanceSq(x, y) <= reach*reach)
+        out.add(c);
+    }
+    return out.size();
+  }
+
+  /**
+   * Finds every particle that overlaps a rectangle. out is cleared first.
+   *
+   * @param minX left edge of the rectangle
+   * @param minY top edge of the rectangle
+   * @param maxX right edge of the rectangle
+   * @param maxY bottom edge of the rectangle
+   * @param out list the matching indices are written to
+   * @return number of particles found
+   */
+  public int queryRect(double minX, double minY, double maxX, double maxY, IntList out) {
+    ensureIndex();
+    candidates.clear();
+    index.collect(minX, minY, maxX, maxY, candidates);
+    out.clear();
+    for (int k = 0; k < candidates.size(); k++) {
+      int c = candidates.get(k);
+      double r = pList[c].getRadius();
+      double dx = pList[c].x - Math.max(minX, Math.min(maxX, pList[c].x));
+      double dy = pList[c].y - Math.max(minY, Math.min(maxY, pList[c].y));
+      if (dx*dx + dy*dy <= r*r)
+        out.add(c);
+    }
+    return out.size();
+  }
+
+  /**
+   * Finds the k particles whose centers are nearest a point, closest first.
+   * out is cleared first, and holds fewer than k indices only if the world
+   * holds fewer than k particles.
+   * <br><br>
+   * The search looks at the centers within a square around the point, starting
+   * one cell wide and doubling until at least k centers lie within its inscribed
+   * circle; at that point no center outside the circle can be among the
+   * nearest k. It gives up once the circle reaches the farthest corner of the
+   * box the index found around every center, since no center can be farther
+   * away than that. The box is used rather than the walls because particles
+   * can stray past the walls: a click outside the world adds one there, and
+   * pushing overlapping particles apart can move one past a wall until the
+   * next step.
+   *
+   * @param x x-coordinate of the point
+   * @param y y-coordinate of the point
+   * @param k how many particles to find
+   * @param out list the nearest indices are written to
+   * @return number of particles found
+   */
+  public int nearest(double x, double y, int k, IntList out) {
+    ensureIndex();
+    out.clear();
+    k = Math.min(k, numParticles);
+    if (k <= 0)
+      return 0;
+    if (nearIndex.length < k) {
+      nearIndex = new int[k];
+      nearDistSq = new double[k];
+    }
+
+    double reach = index.getCellSize();
+    double farthest = index.farthestCenter(x, y);
+    int found;
+    while (true) {
+      candidates.clear();
+      index.collect(x-reach, y-reach, x+reach, y+reach, candidates);
+      found = 0;
+      for (int j = 0; j < candidates.size(); j++) {
+        int c = candidates.get(j);
+        double d = pList[c].distanceSq(x, y);
+        if (d > reach*reach || (found == k && d >= nearDistSq[k-1]))
+          continue;
+        // insertion into the sorted best-k arrays
+        int pos = (found < k)? found++ : k-1;
+        while (pos > 0 && nearDistSq[pos-1] > d) {
+          nearDistSq[pos] = nearDistSq[pos-1];
+          nearIndex[pos] = nearIndex[pos-1];
+          pos--;
+        }
+        nearDistSq[pos] = d;
+        nearIndex[pos] = c;
+      }
+      // the second test is written this way round so a NaN point stops too
+      if (found == k || !(reach <= farthest))
+        break;
+      reach *= 2;
+    }
+
+    for (int j = 0; j < found; j++)
+      out.add(nearIndex[j]);
+    return found;
+  }
+
+  /**
+   * Rebuilds the spatial index if anything has moved since it was last built.
+   */
+  private void ensureIndex() {
+    if (indexDirty) {
+      index.build(pList, numParticles);
+      indexDirty = false;
+    }
+  }
+
+  /**
+   * Sets a particle's colliding field, for engines other than step() that
+   * find collisions themselves, so that clearColliding() knows to reset it.
+   *
+   * @param i index of the particle that collided
+   */
+  public void markColliding(int i) {
+    if (!pList[i].isColliding()) {
+      pList[i].setColliding(true);
+      collided.add(i);
+    }
+  }
+
+  /**
+   * Sets every particle's colliding field back to false, readying them for
+   * collision checks in the next frame. Only the particles set colliding by
+   * step() or markColliding() since the last call are visited, so this costs
+   * nothing in a frame without collisions.
+   */
+  public void clearColliding() {
+    for (int k = 0; k < collided.size(); k++) {
+      int i = collided.get(k);
+      if (i < numParticles)
+        pList[i].setColliding(false);
+    }
+    collided.clear();
+  }
+
+  /**
+   * Returns the particle stored at an index. Re-sorting replaces it with a
+   * copy, and later reuses the object it replaced for another particle, so the
+   * reference should not be kept across steps.
+   *
+   * @param i index, from 0 to size()-1
+   * @return the particle at that index
+   */
+  public Particle get(int i) {
+    return pList[i];
+  }
+
+  /**
+   * Returns the world's particle array itself, for renderers that walk it
+   * directly. Only the first size() entries are particles, and the array is
+   * replaced whenever it grows or is re-sorted, so it should not be held on to.
+   *
+   * @return the backing array of particles
+   */
+  public Particle[] getParticles() {
+    return pList;
+  }
+
+  /**
+   * Returns the number of particles in the world.
+   *
+   * @return particle count
+   */
+  public int size() {
+    return numParticles;
+  }
+
+  /**
+   * Returns the width of the world.
+   *
+   * @return distance between the left and right walls, in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the world.
+   *
+   * @return distance between the top and bottom walls, in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the diagnostics fed by this world's steps.
+   *
+   * @return the world's CollisionDiagnostics
+   */
+  public CollisionDiagnostics getDiagnostics() {
+    return diagnostics;
+  }
+
+}
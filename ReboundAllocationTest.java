@@ -0,0 +1,235 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import java.lang.management.*;
+import java.util.*;
+import javax.swing.*;
+
+/**
+ * ReboundAllocationTest checks that the per-frame paths of the simulation do
+ * not allocate. Garbage made every frame eventually has to be collected, and a
+ * collection pause landing between two ticks of ReboundPanel's Timer shows up
+ * as a stutter. Like Rebound it is merely a tester class: run it and it prints
+ * one line per check, then exits with status 1 if any check failed.
+ * <br><br>
+ * Allocation is measured with the JVM's per-thread allocation counter
+ * (com.sun.management.ThreadMXBean.getThreadAllocatedBytes), read before and
+ * after every single frame, so a failure names the number of frames that
+ * allocated and the worst offender rather than an average that could hide
+ * one bad frame. Each check first runs WARMUP untimed frames, so that arrays
+ * have grown to fit and the JIT has compiled the code being measured, and
+ * then measures FRAMES frames, any one of which allocating a byte fails it.
+ * Painting warms up for PAINT_WARMUP frames instead. Java2D's drawing calls
+ * allocate a few temporaries until the JIT's fully optimizing compiler takes
+ * them on, and the copy of the software framebuffer to the screen, made
+ * once a frame, took between 5000 and 10000 frames to get there.
+ * <br><br>
+ * The checks are: stepping a ParticleWorld with re-sorting switched off;
+ * stepping one with re-sorting on, where the steps that re-sort are held to
+ * the same rule and their number is reported alongside; advancing an
+ * EventDrivenEngine; and painting frames of a ReboundPanel headless into an
+ * offscreen image, with its default Graphics2D backend at a zoom of 1 and
+ * scaled, with the software rasterizer, and as points and density tiles.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class ReboundAllocationTest {
+
+  private static final int PARTICLES = 2000;
+  private static final int WARMUP = 2000;
+  private static final int PAINT_WARMUP = 15000;
+  private static final int FRAMES = 5000;
+  private static final int VIEW_SIZE = 800;
+  private static final int PROBE_WARMUP = 200000;
+
+  private static final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private static final long thread = Thread.currentThread().getId();
+
+  /**
+   * Runs every check and prints its result.
+   *
+   * @param args not used
+   */
+  public static void main(String[] args) {
+    if (!threads.isThreadAllocatedMemorySupported())
+      throw new IllegalStateException("this JVM cannot count allocated bytes per thread");
+    threads.setThreadAllocatedMemoryEnabled(true);
+    for (int i = 0; i < PROBE_WARMUP; i++)
+      allocated();
+
+    boolean passed = true;
+    passed &= checkStep(false);
+    passed &= checkStep(true);
+    passed &= checkEventDriven();
+    passed &= checkPaint("paint, Graphics2D", new int[] {});
+    passed &= checkPaint("paint, Graphics2D scaled", new int[] {KeyEvent.VK_MINUS});
+    passed &= checkPaint("paint, software renderer", new int[] {KeyEvent.VK_B});
+    passed &= checkPaint("paint, points", new int[] {KeyEvent.VK_MINUS, KeyEvent.VK_MINUS,
+        KeyEvent.VK_MINUS});
+    passed &= checkPaint("paint, density tiles", new int[] {KeyEvent.VK_MINUS,
+        KeyEvent.VK_MINUS, KeyEvent.VK_MINUS, KeyEvent.VK_MINUS, KeyEvent.VK_MINUS,
+        KeyEvent.VK_MINUS});
+    System.out.println(passed? "all checks passed" : "ALLOCATION CHECKS FAILED");
+    if (!passed)
+      System.exit(1);
+  }
+
+  /**
+   * Steps a world, clearing colliding flags between steps as the panel does,
+   * and checks that no step allocates. With re-sorting on, a step that
+   * re-sorted is recognised by the world's modification count moving, and is
+   * counted as well as checked.
+   */
+  private static boolean checkStep(boolean reorder) {
+    ParticleWorld world = ReboundBenchmark.polydisperseScene(PARTICLES, 10, 42);
+    if (!reorder)
+      world.setReorderInterval(0);
+    Result result = new Result();
+    for (int frame = -WARMUP; frame < FRAMES; frame++) {
+      int mods = world.getModCount();
+      long before = allocated();
+      world.step();
+      world.clearColliding();
+      long bytes = allocated() - before;
+      if (frame < 0)
+        continue;
+      if (world.getModCount() != mods)
+        result.resorts++;
+      result.record(bytes);
+    }
+    return result.report(reorder? "step, re-sorting on" : "step, re-sorting off");
+  }
+
+  /**
+   * Advances an event-driven engine over a sparse scene and checks that no
+   * frame allocates.
+   */
+  private static boolean checkEventDriven() {
+    ParticleWorld dense = ReboundBenchmark.polydisperseScene(PARTICLES, 1, 42);
+    ParticleWorld world = new ParticleWorld(dense.getWidth()*3, dense.getHeight()*3);
+    for (int i = 0; i < dense.size(); i++) {
+      Particle p = dense.get(i);
+      p.setLocation(p.x*3, p.y*3);
+      world.add(p);
+    }
+    EventDrivenEngine engine = new EventDrivenEngine(world);
+    Result result = new Result();
+    for (int frame = -WARMUP; frame < FRAMES; frame++) {
+      long before = allocated();
+      engine.advanceFrame();
+      world.clearColliding();
+      long bytes = allocated() - before;
+      if (frame >= 0)
+        result.record(bytes);
+    }
+    return result.report("event-driven frame");
+  }
+
+  /**
+   * Paints frames of a real ReboundPanel, headless, into an offscreen image
+   * the panel's size, stepping its world between frames the way its Timer
+   * would. The keys are pressed through the panel's own key listener first,
+   * to pick the backend and zoom. What is measured is paintFrame, all of the
+   * panel's own painting. Two things paintComponent can do are left out,
+   * both of which allocate inside the JDK: JComponent's background fill,
+   * which copies the Graphics and is done here unmeasured instead, and the
+   * outline of a grabbed particle, whose drawOval makes a shape in Java2D,
+   * since nothing is grabbed.
+   */
+  private static boolean checkPaint(String name, int[] keys) {
+    ParticleWorld world = spriteScene();
+    world.setReorderInterval(0);
+    ReboundPanel panel = new ReboundPanel(world);
+    panel.setSize(VIEW_SIZE, VIEW_SIZE);
+    KeyListener listener = panel.getKeyListeners()[0];
+    for (int k = 0; k < keys.length; k++)
+      listener.keyPressed(new KeyEvent(panel, KeyEvent.KEY_PRESSED, 0, 0, keys[k],
+          KeyEvent.CHAR_UNDEFINED));
+    BufferedImage screen = new BufferedImage(VIEW_SIZE, VIEW_SIZE, BufferedImage.TYPE_INT_RGB);
+    Graphics2D page = screen.createGraphics();
+
+    Result result = new Result();
+    for (int frame = -PAINT_WARMUP; frame < FRAMES; frame++) {
+      world.step();
+      page.setColor(panel.getBackground());
+      page.fillRect(0, 0, VIEW_SIZE, VIEW_SIZE);
+      page.setColor(panel.getForeground());
+      long before = allocated();
+      panel.paintFrame(page);
+      long bytes = allocated() - before;
+      if (frame >= 0)
+        result.record(bytes);
+    }
+    page.dispose();
+    return result.report(name);
+  }
+
+  /**
+   * Builds a world of PARTICLES of the panel's own particles, henry and
+   * dylan in equal numbers, scattered at random so they cover about a fifth
+   * of it.
+   */
+  private static ParticleWorld spriteScene() {
+    ImageIcon henry = new ImageIcon("henry.gif");
+    ImageIcon dylan = new ImageIcon("dylan.gif");
+    ImageIcon angry = new ImageIcon("angry_dylan.gif");
+    if (henry.getIconWidth() <= 0 || dylan.getIconWidth() <= 0 || angry.getIconWidth() <= 0)
+      throw new IllegalStateException("run from the directory holding the sprites");
+    double rh = henry.getIconWidth()/2.0, rd = dylan.getIconWidth()/2.0;
+    int side = (int) Math.ceil(Math.sqrt(Math.PI*(rh*rh + rd*rd)*PARTICLES/2 / 0.2));
+
+    Random rand = new Random(42);
+    ParticleWorld world = new ParticleWorld(side, side);
+    for (int i = 0; i < PARTICLES; i++) {
+      Point p = new Point(rand.nextInt(side), rand.nextInt(side));
+      double direction = rand.nextDouble()*2*Math.PI;
+      if (i % 2 == 0)
+        world.add(new Particle(p, direction, henry));
+      else
+        world.add(new SmartParticle(p, direction, dylan, angry));
+    }
+    return world;
+  }
+
+  /**
+   * Returns the number of bytes this thread has allocated so far. The first
+   * few thousand calls can themselves allocate inside the JVM while the call
+   * is being compiled, which is why main calls it PROBE_WARMUP times before
+   * any check starts.
+   */
+  private static long allocated() {
+    return threads.getThreadAllocatedBytes(thread);
+  }
+
+  /**
+   * Result tallies the frames of one check.
+   */
+  private static class Result {
+    private int frames, allocating, resorts;
+    private long worst;
+
+    void record(long bytes) {
+      frames++;
+      if (bytes > 0) {
+        allocating++;
+        worst = Math.max(worst, bytes);
+      }
+    }
+
+    /**
+     * Prints the check's line and returns whether it passed.
+     */
+    boolean report(String name) {
+      String line = ReboundBenchmark.pad(name, 26) + (allocating == 0? "ok    " : "FAILED")
+          + "  " + allocating + " of " + frames + " frames allocated, worst " + worst + " bytes";
+      if (resorts > 0)
+        line += "; " + resorts + " of them re-sorted";
+      System.out.println(line);
+      return allocating == 0;
+    }
+  }
+
+}
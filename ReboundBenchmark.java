@@ -0,0 +1,376 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import javax.swing.*;
+
+/**
+ * ReboundBenchmark times the simulation without a window, on scenes built to
+ * stress it. Like Rebound it is merely a tester class: run it with an optional
+ * particle count (20000 by default) and it prints one line per scene.
+ * <br><br>
+ * The scenes are polydisperse: SIZES distinct sprite diameters are spread
+ * evenly on a log scale from MIN_DIAMETER up to the scene's size ratio times
+ * that. Each size covers the same total area, so small particles far
+ * outnumber large ones, as in real mixtures, and the world is sized so the
+ * particles cover about COVERAGE of it. For each scene the broad phase,
+ * meaning an index build plus finding and testing every touching pair, is
+ * timed with a single SpatialHash and with a HierarchicalSpatialHash, along
+ * with the number of candidate pairs each had to test. Both must find the
+ * same touching pairs, which is checked.
+ * Then a ParticleWorld holding the scene is stepped, and its full step time
+ * is reported twice: first with periodic re-sorting of the particles switched
+ * off, so they stay in the scattered order they were added in, and then for a
+ * fresh copy of the scene with re-sorting on as usual.
+ * <br><br>
+ * A last table finds the size ratio where the hierarchical index starts to
+ * beat a single level, which is how its SINGLE_LEVEL_RATIO was picked. It
+ * times the two again, with the hierarchical index made to use its levels
+ * at any ratio, on polydisperse scenes and on scenes of just two sizes,
+ * CROSS_DIAMETER pixels and ratio times that, as many of each, like the
+ * panel's henry and dylan.
+ * <br><br>
+ * Times are the median over RUNS runs after WARMUP untimed ones, so that the
+ * JIT has settled before anything is measured. Each index gets its own
+ * warm-up, and the timed runs of the two alternate, one going first in one
+ * run and the other in the next, so that neither is favoured by running
+ * earlier or later. Step times are the exception: they are the mean over
+ * STEP_ROUNDS blocks of STEP_BLOCK steps, so that re-sorting is counted in
+ * them, after STEP_WARMUP untimed steps, and the unsorted and sorted worlds
+ * take turns in the same way.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class ReboundBenchmark {
+
+  private static final int MIN_DIAMETER = 4;
+  private static final int SIZES = 8;
+  private static final double COVERAGE = 0.2;
+  private static final int WARMUP = 10;
+  private static final int RUNS = 15;
+  private static final int STEP_WARMUP = 80;
+  private static final int STEP_BLOCK = 32;
+  private static final int STEP_ROUNDS = 4;
+  private static final int CROSS_DIAMETER = 50;
+
+  /**
+   * Runs every scene and prints its timings.
+   *
+   * @param args optionally, the number of particles per scene
+   */
+  public static void main(String[] args) {
+    int n = (args.length > 0)? Integer.parseInt(args[0]) : 20000;
+    int[] ratios = {1, 10, 100};
+
+    System.out.println("particles: " + n);
+    System.out.println("ratio  single ms  candidates  hierarchical ms  candidates  pairs"
+        + "  unsorted step ms  step ms");
+    for (int r = 0; r < ratios.length; r++) {
+      ParticleWorld world = polydisperseScene(n, ratios[r], 42);
+      Particle[] list = world.getParticles();
+
+      SpatialHash single = new SpatialHash();
+      HierarchicalSpatialHash hier = new HierarchicalSpatialHash();
+      IntList scratch = new IntList();
+      long[] singleCounts = new long[2];
+      long[] hierCounts = new long[2];
+
+      for (int run = 0; run < WARMUP; run++)
+        broadPhase(single, list, n, scratch, singleCounts);
+      for (int run = 0; run < WARMUP; run++)
+        broadPhase(hier, list, n, scratch, hierCounts);
+      double[] singleTimes = new double[RUNS];
+      double[] hierTimes = new double[RUNS];
+      for (int run = 0; run < RUNS; run++) {
+        // alternate which index goes first, so neither always runs on a cache
+        // the other has just filled or emptied
+        for (int half = 0; half < 2; half++) {
+          long t = System.nanoTime();
+          if ((run + half) % 2 == 0) {
+            broadPhase(single, list, n, scratch, singleCounts);
+            singleTimes[run] = (System.nanoTime() - t)/1e6;
+          }
+          else {
+            broadPhase(hier, list, n, scratch, hierCounts);
+            hierTimes[run] = (System.nanoTime() - t)/1e6;
+          }
+        }
+      }
+      double singleMs = median(singleTimes);
+      double hierMs = median(hierTimes);
+      if (singleCounts[1] != hierCounts[1])
+        throw new IllegalStateException("indices disagree: " + singleCounts[1]
+            + " pairs against " + hierCounts[1]);
+
+      world.setReorderInterval(0);
+      double[] stepMs = stepTimes(world, polydisperseScene(n, ratios[r], 42));
+
+      System.out.println(pad(ratios[r] + ":1", 5) + pad(format(singleMs), 11)
+          + pad("" + singleCounts[0], 12) + pad(format(hierMs), 17)
+          + pad("" + hierCounts[0], 12) + pad("" + hierCounts[1], 7)
+          + pad(format(stepMs[0]), 18) + pad(format(stepMs[1]), 9));
+    }
+
+    // where a single level stops beating several: in the scenes the panel
+    // makes, two sizes as many of each, and in polydisperse ones, where the
+    // small particles far outnumber the large
+    double[] crossRatios = {1.6, 2, 3, 4, 6, 8, 12, 16, 24, 32};
+    System.out.println();
+    System.out.println("one level against several, all levels used");
+    System.out.println("ratio  two sizes: single ms  levels ms"
+        + "  polydisperse: single ms  levels ms");
+    for (int r = 0; r < crossRatios.length; r++) {
+      ParticleWorld pair = twoSizeScene(n, crossRatios[r], 42);
+      double[] pairMs = crossoverTimes(pair.getParticles(), n);
+      ParticleWorld mix = polydisperseScene(n, crossRatios[r], 42);
+      double[] mixMs = crossoverTimes(mix.getParticles(), n);
+      System.out.println(pad(crossRatios[r] + ":1", 6) + pad(format(pairMs[0]), 21)
+          + pad(format(pairMs[1]), 10) + pad(format(mixMs[0]), 24)
+          + pad(format(mixMs[1]), 10));
+    }
+  }
+
+  /**
+   * Returns the median broad-phase time of a single SpatialHash and of a
+   * HierarchicalSpatialHash made to use its levels whatever the size ratio,
+   * warmed up and alternated like the scenes above. Both must find the same
+   * touching pairs.
+   */
+  private static double[] crossoverTimes(Particle[] list, int n) {
+    SpatialHash single = new SpatialHash();
+    HierarchicalSpatialHash levels = new HierarchicalSpatialHash(0);
+    IntList scratch = new IntList();
+    long[] singleCounts = new long[2];
+    long[] levelCounts = new long[2];
+
+    for (int run = 0; run < WARMUP; run++) {
+      broadPhase(single, list, n, scratch, singleCounts);
+      broadPhase(levels, list, n, scratch, levelCounts);
+    }
+    double[] singleTimes = new double[RUNS];
+    double[] levelTimes = new double[RUNS];
+    for (int run = 0; run < RUNS; run++) {
+      for (int half = 0; half < 2; half++) {
+        long t = System.nanoTime();
+        if ((run + half) % 2 == 0) {
+          broadPhase(single, list, n, scratch, singleCounts);
+          singleTimes[run] = (System.nanoTime() - t)/1e6;
+        }
+        else {
+          broadPhase(levels, list, n, scratch, levelCounts);
+          levelTimes[run] = (System.nanoTime() - t)/1e6;
+        }
+      }
+    }
+    if (singleCounts[1] != levelCounts[1])
+      throw new IllegalStateException("indices disagree: " + singleCounts[1]
+          + " pairs against " + levelCounts[1]);
+    return new double[] {median(singleTimes), median(levelTimes)};
+  }
+
+  /**
+   * Returns the mean time of one step of each of two worlds, clearing
+   * colliding flags between steps as the panel does. Both are first stepped
+   * STEP_WARMUP times untimed, which is long enough for a world that re-sorts
+   * to have done so. Then they take turns at STEP_BLOCK steps each, STEP_ROUNDS
+   * times over, with the one that goes first alternating, so that neither is
+   * favoured by the JIT or the heap. The mean rather than the median is used
+   * so that the occasional step that also re-sorts the particles is paid for.
+   */
+  private static double[] stepTimes(ParticleWorld first, ParticleWorld second) {
+    ParticleWorld[] worlds = {first, second};
+    double[] ms = new double[2];
+    for (int w = 0; w < 2; w++)
+      steps(worlds[w], STEP_WARMUP);
+    for (int round = 0; round < STEP_ROUNDS; round++) {
+      for (int half = 0; half < 2; half++) {
+        int w = (round + half) % 2;
+        long t = System.nanoTime();
+        steps(worlds[w], STEP_BLOCK);
+        ms[w] += (System.nanoTime() - t)/1e6;
+      }
+    }
+    ms[0] /= STEP_ROUNDS*STEP_BLOCK;
+    ms[1] /= STEP_ROUNDS*STEP_BLOCK;
+    return ms;
+  }
+
+  /**
+   * Steps a world a number of times, clearing colliding flags after each.
+   */
+  private static void steps(ParticleWorld world, int count) {
+    for (int run = 0; run < count; run++) {
+      world.step();
+      world.clearColliding();
+    }
+  }
+
+  /**
+   * Builds a world of n particles whose diameters run from MIN_DIAMETER to
+   * ratio times that, with each size covering an equal share of the area,
+   * scattered at random with random directions. The seed makes scenes
+   * repeatable.
+   *
+   * @param n number of particles
+   * @param ratio largest diameter over smallest
+   * @param seed seed for the random placement
+   * @return the populated world
+   */
+  static ParticleWorld polydisperseScene(int n, double ratio, long seed) {
+    Random rand = new Random(seed);
+    ImageIcon[] sprites = new ImageIcon[SIZES];
+    for (int s = 0; s < SIZES; s++) {
+      double f = (SIZES == 1)? 0 : (double) s / (SIZES - 1);
+      int d = (int) Math.round(MIN_DIAMETER*Math.pow(ratio, f));
+      sprites[s] = new ImageIcon(disc(Math.max(2, d)));
+    }
+
+    // a size is drawn with probability proportional to one over its area
+    double[] weight = new double[SIZES];
+    double total = 0;
+    for (int s = 0; s < SIZES; s++) {
+      double d = sprites[s].getIconWidth();
+      total += 1/(d*d);
+      weight[s] = total;
+    }
+
+    int[] pick = new int[n];
+    double area = 0;
+    for (int i = 0; i < n; i++) {
+      double u = rand.nextDouble()*total;
+      int s = 0;
+      while (s < SIZES-1 && weight[s] < u)
+        s++;
+      pick[i] = s;
+      double r = sprites[s].getIconWidth()/2;
+      area += Math.PI*r*r;
+    }
+    int side = (int) Math.ceil(Math.sqrt(area / COVERAGE));
+
+    ParticleWorld world = new ParticleWorld(side, side);
+    for (int i = 0; i < n; i++) {
+      Point p = new Point(rand.nextInt(side), rand.nextInt(side));
+      world.add(new Particle(p, rand.nextDouble()*2*Math.PI, sprites[pick[i]]));
+    }
+    return world;
+  }
+
+  /**
+   * Builds a world of n particles, half of them CROSS_DIAMETER wide and half
+   * ratio times that, sized and scattered like the polydisperse scenes.
+   *
+   * @param n number of particles
+   * @param ratio larger diameter over smaller
+   * @param seed seed for the random placement
+   * @return the populated world
+   */
+  static ParticleWorld twoSizeScene(int n, double ratio, long seed) {
+    Random rand = new Random(seed);
+    ImageIcon small = new ImageIcon(disc(CROSS_DIAMETER));
+    ImageIcon large = new ImageIcon(disc((int) Math.round(CROSS_DIAMETER*ratio)));
+    double rs = small.getIconWidth()/2.0, rl = large.getIconWidth()/2.0;
+    double area = Math.PI*(rs*rs + rl*rl)*n/2;
+    int side = (int) Math.ceil(Math.sqrt(area / COVERAGE));
+
+    ParticleWorld world = new ParticleWorld(side, side);
+    for (int i = 0; i < n; i++) {
+      Point p = new Point(rand.nextInt(side), rand.nextInt(side));
+      world.add(new Particle(p, rand.nextDouble()*2*Math.PI, (i % 2 == 0)? small : large));
+    }
+    return world;
+  }
+
+  /**
+   * Rebuilds a single-level index and tests every pair
+   * it suggests, the way ParticleWorld's step used to. counts[0] receives the
+   * number of candidate pairs tested and counts[1] the number touching.
+   */
+  private static void broadPhase(SpatialHash index, Particle[] list, int n, IntList scratch,
+      long[] counts) {
+    counts[0] = counts[1] = 0;
+    index.build(list, n);
+    for (int i = 0; i < n; i++) {
+      Particle p = list[i];
+      double r = p.getRadius();
+      scratch.clear();
+      index.collect(p.x-r, p.y-r, p.x+r, p.y+r, scratch);
+      for (int k = 0; k < scratch.size(); k++) {
+        int c = scratch.get(k);
+        if (c > i)
+          test(p, list[c], counts);
+      }
+    }
+  }
+
+  /**
+   * The same as above for the hierarchical index, with each particle only
+   * looking at its own level and the coarser ones, as ParticleWorld's step does.
+   */
+  private static void broadPhase(HierarchicalSpatialHash index, Particle[] list, int n,
+      IntList scratch, long[] counts) {
+    counts[0] = counts[1] = 0;
+    index.build(list, n);
+    for (int i = 0; i < n; i++) {
+      Particle p = list[i];
+      double r = p.getRadius();
+      int level = index.getLevel(i);
+      scratch.clear();
+      index.collectFrom(level, p.x-r, p.y-r, p.x+r, p.y+r, scratch);
+      for (int k = 0; k < scratch.size(); k++) {
+        int c = scratch.get(k);
+        if (c > i || index.getLevel(c) > level)
+          test(p, list[c], counts);
+      }
+    }
+  }
+
+  /**
+   * Counts one candidate pair, and one touching pair if the two overlap. Uses
+   * the same test as Particle.intersects, minus setting the colliding fields.
+   */
+  private static void test(Particle a, Particle b, long[] counts) {
+    counts[0]++;
+    double bothRad = a.getRadius() + b.getRadius();
+    if (a.distanceSq(b) <= bothRad*bothRad)
+      counts[1]++;
+  }
+
+  /**
+   * Draws a white disc of the given diameter on a transparent background.
+   */
+  private static BufferedImage disc(int d) {
+    BufferedImage im = new BufferedImage(d, d, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = im.createGraphics();
+    g.setColor(Color.white);
+    g.fillOval(0, 0, d, d);
+    g.dispose();
+    return im;
+  }
+
+  /**
+   * Returns the median of the values, sorting them in place.
+   */
+  static double median(double[] values) {
+    Arrays.sort(values);
+    return values[values.length/2];
+  }
+
+  /**
+   * Formats a time in milliseconds to two decimal places.
+   */
+  static String format(double ms) {
+    return String.format("%.2f", ms);
+  }
+
+  /**
+   * Pads a string on the left to the given width.
+   */
+  static String pad(String s, int width) {
+    StringBuilder b = new StringBuilder();
+    for (int i = s.length(); i < width; i++)
+      b.append(' ');
+    return b.append(s).append(' ').toString();
+  }
+
+}
@@ -20,14 +20,50 @@ import javax.swing.*;
  * Likewise, Pressing any key in the UIOJKLM,. 3x3 block of keys specifies
  * that the next particle should be smart, and the specific key specifies
  * its direction. Like before, I is Northwest, O North, and so on.
+ * <br>
+ * The panel is a window onto a world much larger than itself. The arrow keys pan
+ * the view around the world, and + and - (or the mouse wheel, which zooms around
+ * the cursor) zoom it in and out by factors of two. The outline of the world's
+ * walls is drawn so it is clear where the edges are.
+ * <br>
+ * Clicking on a particle that is already in the panel grabs it instead of adding
+ * a new one: the particle stops, follows the mouse while it is dragged, and stays
+ * where it is dropped. Right-clicking a particle deletes it. The grabbed particle
+ * is remembered by its handle in the world rather than its index, since the world
+ * re-sorts its particles from time to time. Deleting the grabbed particle, by
+ * right-clicking it while the left button still holds it, lets go of it.
+ * <br>
+ * Pressing B switches between the two render backends: the default one paints
+ * each particle with ImageIcon's paintIcon, while the software one hands the
+ * whole frame to a ParticleRasterizer, which copies sprite pixels straight into
+ * an offscreen image that is then drawn in a single call. The software backend
+ * is what makes tens of thousands of particles per frame practical.
+ * <br>
+ * Pressing G switches between the two ways of moving the particles: the default
+ * one steps the ParticleWorld a frame at a time and pushes apart particles found
+ * overlapping, while the event-driven one hands the world to an
+ * EventDrivenEngine, which jumps from one exact moment of impact to the next.
+ * The event-driven engine is the better choice for sparse, fast scenes, where
+ * most particles fly freely for many frames between collisions.
+ * <br><br>
+ * The particles themselves, and the stepping of the simulation, live in a
+ * ParticleWorld of WORLD_WIDTH by WORLD_HEIGHT. The world grows its storage as
+ * needed, so there is no limit on how many particles can be added. Its spatial
+ * index is also what lets the mouse listener find the particle under the cursor,
+ * and what lets painting find the particles in view, without looking at every
+ * particle.
  * <br><br>
- * A maximum of 250 particles can be added to the panel. This is probably overkill
- * because 250 particles cannot even fit on the screen, but the user should ideally
- * never reach this limit and see an error. An array of Particles is used to store
- * each particle bouncing in the panel for convenience
+ * How particles are drawn depends on the zoom. From SPRITE_ZOOM up they are
+ * drawn as their (scaled) images, by whichever backend is selected. Below that
+ * the images would be only a few pixels across, so each particle becomes a single
+ * pixel, and below POINT_ZOOM even that is too much detail and the view is drawn
+ * as tiles of TILE_SIZE pixels shaded by how many particles they hold. Those two
+ * levels are always drawn in software, since they are written pixel by pixel.
  * <br><br>
  * Information about the next particle to be added is displayed to the user for ease
- * of use. Strings are used to store this information. Also the field nextDirection
+ * of use. Strings are used to store this information. The readout is written
+ * into a reused TextLine rather than built by string concatenation, so that
+ * painting it every frame creates no garbage. Also the field nextDirection
  * double stores the direction as a radian value for the next particle to 
  * be added. The String nextParticleType is also used in the mouse listener to
  * determine whether the added particle should be smart or not. It seemed simple to
@@ -46,8 +82,17 @@ import javax.swing.*;
  * particles are added to the panel, but after about 100 particles the panel becomes
  * so packed that the whole thing is to clumpy and frantic to look realistic or cool.
  * <br>
+ * To put numbers behind that, every frame the step loop also feeds a
+ * CollisionDiagnostics with each particle's energy and momentum, each collision's
+ * penetration depth and each wall bounce's impulse, all in the same pass. The
+ * kinetic energy and the energy and momentum drift of the last frame are shown
+ * below the next particle information, and under them the drift and the
+ * rounding error of translate() totalled over the whole run, which is where
+ * slow accumulation of error shows up. The totals start again whenever G
+ * switches engines.
+ * <br>
  * Documentation for design decisions and collision calculations are given later and
- * in the Particle class.
+ * in the ParticleWorld and Particle classes.
  * <br><br>
  * Code originally adopted from Lewis/Lofton Textbook
  * 
@@ -59,44 +104,80 @@ public class ReboundPanel extends JPanel {
   
   private final int WIDTH = 800; // 800 seemed a nice "medium" size
   private final int HEIGHT = 800; // want container to be square
+  private final int WORLD_WIDTH = 6400; // eight screens across
+  private final int WORLD_HEIGHT = 6400; // and eight down
   private final int DELAY = 45;  // 45 ms corresponds to about 22 frames per second
-  private final int MAX_PARTICLES = 250; 
+  private final int PAN_STEP = 100; // screen pixels moved per arrow key press
+  private final double SPRITE_ZOOM = 0.25; // henry is about 12 pixels wide here
+  private final double POINT_ZOOM = 1.0/32;
+  private final int TILE_SIZE = 8;
   
-  private Particle[] pList;
+  private ParticleWorld world;
+  private Camera camera;
+  private IntList visible;
   private ImageIcon pImage, spImage1, spImage2;
   private Timer timer;
-  private int numParticles;
   private double nextDirection;
   private String selectedDirection, nextParticleType;
+  private int selected;
+  private ParticleRasterizer rasterizer;
+  private java.awt.image.BufferedImage framebuffer;
+  private EventDrivenEngine engine;
+  private boolean softwareRender, eventDriven;
+  private TextLine hud;
   
   /**
    * Constructor adds key and mouse listeners to the panel, initializes the
-   * Timer with a listener, initializes list of Particles, initializes images
+   * Timer with a listener, initializes the world of Particles, initializes images
    * to be used for both types of particles, initializes integer and String fields
    * to default values, and performs necessary JPanel and Timer idioms so that
    * they are used properly. In doing all of this, it prepares the panel to bounce
    * some particles around ad nasuem!
    */
   public ReboundPanel() {
+    this(null);
+    timer.start();
+  }
+  
+  /**
+   * Constructor sets the panel up as above to show the given world, but leaves
+   * the Timer stopped, so nothing steps the world but the caller. This is how
+   * ReboundAllocationTest paints real frames of the panel without a window.
+   * 
+   * @param shown world to show, or null for an empty one of WORLD_WIDTH by
+   * WORLD_HEIGHT
+   */
+  ReboundPanel(ParticleWorld shown) {
+    ClickListener clicks = new ClickListener();
     addKeyListener(new DirectionListener());
-    addMouseListener(new ClickListener());
+    addMouseListener(clicks);
+    addMouseMotionListener(clicks);
+    addMouseWheelListener(clicks);
     timer = new Timer(DELAY, new CollisionListener());
     
-    pList = new Particle[MAX_PARTICLES];
+    world = (shown != null)? shown : new ParticleWorld(WORLD_WIDTH,WORLD_HEIGHT);
+    camera = new Camera(world.getWidth(),world.getHeight());
+    camera.setViewSize(WIDTH,HEIGHT);
+    camera.centerOn(world.getWidth()/2,world.getHeight()/2);
+    visible = new IntList();
     
     pImage = new ImageIcon("henry.gif");
     spImage1 = new ImageIcon("dylan.gif");
     spImage2 = new ImageIcon("angry_dylan.gif");
 
-    numParticles = 0;
     nextDirection = 0;
     selectedDirection = "East";
     nextParticleType = "Regular";
+    selected = -1;
+    rasterizer = new ParticleRasterizer();
+    engine = new EventDrivenEngine(world);
+    softwareRender = false;
+    eventDriven = false;
+    hud = new TextLine();
     
     setPreferredSize(new Dimension(WIDTH,HEIGHT));
     setBackground(Color.black);
     setForeground(Color.white);
-    timer.start();
     setFocusable(true);
   }
   
@@ -118,121 +199,125 @@ public class ReboundPanel extends JPanel {
    * the paintIcon method for imageIcons assumes the given point is the
    * top-left corner of the image. Because Particles are represented by
    * their center point, to paint them the top-left corner is calculated.
+   * <br><br>
+   * Only the particles in view are painted: the world is asked for the
+   * particles overlapping the camera's view, and those are sorted back into
+   * world order so overlapping particles stack the same way at every zoom. At
+   * zooms other than 1 the images are scaled as they are drawn.
+   * <br><br>
+   * When the software backend is selected, or the zoom calls for points or
+   * density tiles, the particles are instead drawn by the rasterizer into an
+   * offscreen framebuffer matching the panel's size, and that framebuffer is
+   * painted in one drawImage call. The framebuffer is only reallocated when
+   * the panel is resized. A particle being dragged is outlined so the user
+   * can see what they have grabbed.
    * 
    * @param page the Graphics component of the JPanel
    */
   public void paintComponent(Graphics page) {
     super.paintComponent(page);
-    int xLeft, yTop;
-    for(int i = 0; i < numParticles; i++) {
-      xLeft = (int) (pList[i].x-pList[i].getRadius());
-      yTop = (int) (pList[i].y-pList[i].getRadius());
-      pList[i].getImage().paintIcon(this, page, xLeft, yTop);
+    paintFrame(page);
+  }
+  
+  /**
+   * Paints everything paintComponent draws over the background, which is
+   * all of the panel's own per-frame painting. ReboundAllocationTest checks
+   * that this allocates nothing. It is kept apart from paintComponent because
+   * JComponent's paintComponent copies the Graphics to fill the background,
+   * which allocates inside Swing on every frame.
+   * 
+   * @param page the Graphics component of the JPanel
+   */
+  void paintFrame(Graphics page) {
+    camera.setViewSize(getWidth(), getHeight());
+    world.queryRect(camera.getX(), camera.getY(), camera.getMaxX(), camera.getMaxY(), visible);
+    double zoom = camera.getZoom();
+    
+    if (softwareRender || zoom < SPRITE_ZOOM) {
+      if (framebuffer == null || framebuffer.getWidth() != getWidth()
+          || framebuffer.getHeight() != getHeight())
+        framebuffer = ParticleRasterizer.createFramebuffer(getWidth(), getHeight());
+      if (zoom >= SPRITE_ZOOM) {
+        visible.sort();
+        rasterizer.render(framebuffer, world.getParticles(), visible, camera, getBackground());
+      }
+      else if (zoom >= POINT_ZOOM)
+        rasterizer.renderPoints(framebuffer, world.getParticles(), visible, camera, getBackground());
+      else
+        rasterizer.renderDensity(framebuffer, world.getParticles(), visible, camera, TILE_SIZE,
+            getBackground());
+      page.drawImage(framebuffer, 0, 0, null);
+    }
+    else {
+      visible.sort();
+      int xLeft, yTop;
+      for(int k = 0; k < visible.size(); k++) {
+        Particle p = world.get(visible.get(k));
+        xLeft = (int) Math.floor(camera.toScreenX(p.x-p.getRadius()));
+        yTop = (int) Math.floor(camera.toScreenY(p.y-p.getRadius()));
+        ImageIcon im = p.getImage();
+        if (zoom == 1)
+          im.paintIcon(this, page, xLeft, yTop);
+        else
+          page.drawImage(im.getImage(), xLeft, yTop, (int) Math.round(im.getIconWidth()*zoom),
+              (int) Math.round(im.getIconHeight()*zoom), this);
+      }
+    }
+    
+    page.drawRect((int) Math.round(camera.toScreenX(0)), (int) Math.round(camera.toScreenY(0)),
+        (int) Math.round(world.getWidth()*zoom), (int) Math.round(world.getHeight()*zoom));
+    
+    if (selected >= 0 && world.getIndex(selected) >= 0) {
+      Particle p = world.get(world.getIndex(selected));
+      int r = (int) Math.round(p.getRadius()*zoom);
+      page.drawOval((int) Math.round(camera.toScreenX(p.x))-r,
+          (int) Math.round(camera.toScreenY(p.y))-r, 2*r, 2*r);
     }
     
-    page.drawString("Count: " + numParticles,5,15);
-    page.drawString("Direction set to: " + selectedDirection,5,30);
-    page.drawString("Selected particle type: " + nextParticleType,5,45);
+    CollisionDiagnostics diagnostics = world.getDiagnostics();
+    hud.clear().append("Count: ").append(world.size()).draw(page,5,15);
+    hud.clear().append("Direction set to: ").append(selectedDirection).draw(page,5,30);
+    hud.clear().append("Selected particle type: ").append(nextParticleType).draw(page,5,45);
+    hud.clear().append("Renderer: ").append(softwareRender? "Software" : "Graphics2D")
+        .append("  Engine: ").append(eventDriven? "Event-driven" : "Stepped")
+        .append("  Zoom: ").append(zoom,6).draw(page,5,60);
+    hud.clear().append("Energy: ").append(diagnostics.getKineticEnergy(),3)
+        .append("  Drift: ").append(diagnostics.getEnergyDrift(),3)
+        .append(" / ").append(diagnostics.getMomentumDrift(),3).draw(page,5,75);
+    hud.clear().append("Total drift: ").append(diagnostics.getTotalEnergyDrift(),3)
+        .append(" / ").append(diagnostics.getTotalMomentumDrift(),3)
+        .append("  Rounding: ").append(diagnostics.getTotalRoundingError(),3)
+        .append(" px").draw(page,5,90);
     
-    for (int i=0; i < numParticles; i++)
-      pList[i].setColliding(false);
+    world.clearColliding();
   }
   
   
   /**
    * CollisionListener implements ActionListener and functions to respond to
-   * every tick of the Timer. Specific documentation for how the class works
-   * is provided below before each method, but broadly the class is responsible
-   * for animating the frame and managing collisions between particles.
+   * every tick of the Timer. Broadly the class is responsible for animating
+   * the frame; the collisions themselves are managed by the ParticleWorld.
    */
   private class CollisionListener implements ActionListener {
     
     /**
      * Implemented from ActionListener. At every frame, the Timer produces an
-     * event and actionPerformed is called. The method goes through every
-     * Particle in the panel, first checking if the particle hits the walls of
-     * the frame, then checking if the particle intersects with any other
-     * particle. Finally, each particle is translated by one time-step of its
-     * velocity, and the frame is repainted. Performing this repaint at every
-     * timer event is what produces the animation of this design.
+     * event and actionPerformed is called. The method steps the world by one
+     * frame, which checks every particle against the walls and the other
+     * particles and translates it (or, when the event-driven engine is
+     * selected, lets the engine advance the world by a frame), and then the
+     * frame is repainted. Performing this repaint at every timer event is
+     * what produces the animation of this design.
      * 
      * @event ActionEvent produced at every tick of the Timer
      */
     public void actionPerformed(ActionEvent event) {
-      for (int i=0; i < numParticles; i++) {    	
-    	detectWallCollision(i);
-        detectInterParticleCollisions(i);
-        pList[i].translate();
-      }
-      
+      if (eventDriven)
+        engine.advanceFrame();
+      else
+        world.step();
       repaint();
     }
-    
-    /**
-     * Private method used to check each particle for collisions with every
-     * subsequent particle. To prevent redundancy, particles only check for
-     * collisions with other particles located after them in the array of
-     * Particles (because if p1 checked with p2, p2 needs not to check with p1),
-     * and once a particle has detected collision with one particle, it stops
-     * checking for collision with another particle. In theory, a single particle
-     * could collide with two other particles at the exact same moment, but in
-     * practice this doesn't seem to be an issue, and only accounting for a single
-     * collision for each particle for frame reduces computation a good bit.
-     * Particle's methods for detecting collisions and responding to them are called
-     * for simplicity.
-     * 
-     * @param i index of pList containing the particle that should check collisions
-     * with every subsequent particle
-     */
-    private void detectInterParticleCollisions(int i) {  
-      for (int c = i+1; c < numParticles; c++) {
-    	if(!pList[i].isColliding() && pList[i].intersects(pList[c]))
-    	  pList[i].elasticCollision(pList[c]);
-      }
-    }
-    
-    /**
-     * Private method called to check if a particle runs into the walls of the
-     * containing panel. If it does, its x or y velocity is appropriately
-     * reversed. Then, because the time frames are discrete, the particle could overlap
-     * with the wall, and continually reverse its direction, getting stuck.
-     * This method places the balls completely within the panel whenever they
-     * overlap in order to prevent sticking.
-     * <br>
-     * Wall collisions deliberately do not set particles to colliding. Only collisions
-     * with other particles count as "colliding" for the particles. This is done
-     * so that interparticle collisions are not ignored because of wall collisions,
-     * and so that smart particles do not change images when they hit a wall; in this
-     * design it seems more natural for smart particles to change image when they hit
-     * other particles only.
-     * 
-     * @param i index of pList containing Particle to put in frame
-     */
-    private void detectWallCollision(int i) {
-      int x = pList[i].x;
-      int y = pList[i].y;
-      int r = (int) Math.round(pList[i].getRadius());
-      if (x<=r) {		    // left wall
-        pList[i].setLocation(r+1,y);
-        pList[i].setVx(-1*pList[i].getVx());
-      }
-      else if (x>=(WIDTH-r)) {	    // right wall
-        pList[i].setLocation(WIDTH-r-1,y);
-        pList[i].setVx(-1*pList[i].getVx());
-      }
-  	  
-      x = pList[i].x; 		   // update x to current x location
-  	  
-      if (y<=r) {                  // top wall
-        pList[i].setLocation(x,r+1);
-        pList[i].setVy(-1*pList[i].getVy());
-      }
-      else if (y>=(HEIGHT-r)) {    // bottom wall
-        pList[i].setLocation(x,HEIGHT-r-1);
-        pList[i].setVy(-1*pList[i].getVy());
-      }
-    
-    }
   }
   
   /**
@@ -240,31 +325,90 @@ public class ReboundPanel extends JPanel {
    * and respond to every user press of the mouse. Specifics for how clicks are
    * responded to are documented in the mousePressed method below. Broadly, the
    * class creates a new particle based on user and class defined fields, and
-   * adds that particle to the list of current particles in the pane.
+   * adds that particle to the list of current particles in the pane, or else
+   * grabs, drags and deletes particles that are already there.
    */
   private class ClickListener extends MouseAdapter {
 
     /**
      * Method overrides one from MouseAdapter. Event is generated whenever the
-     * user clicks the mouse. A click adds a new particle to the panel. The
-     * point of the click becomes the center of the Particle, then the
-     * nextParticleType and nextDirection fields are used to construct either a
-     * new Particle or a new SmartParticle. This particle is then added to the
-     * program's list of particles in the frame.
+     * user clicks the mouse. The click is converted from screen to world
+     * coordinates by the camera, and the world is asked which particle, if any,
+     * is under it. If there is one, a right-click deletes it (letting go of
+     * it first if it is the grabbed particle) and any other click grabs it:
+     * the particle is stopped and selected so that dragging moves it.
+     * Otherwise the click adds a new particle to the panel. The point of the
+     * click becomes the center of the Particle, then the nextParticleType and
+     * nextDirection fields are used to construct either a new Particle or a
+     * new SmartParticle. This particle is then added to the program's world
+     * of particles.
      * 
      * @param event MouseEvent generated when user clicks the mouse in the panel;
      * where the click occurs becomes the center of the next ball to be added
      */
     public void mousePressed(MouseEvent event) {
+       Point p = new Point((int) Math.floor(camera.toWorldX(event.getX())),
+           (int) Math.floor(camera.toWorldY(event.getY())));
+       int hit = world.pick(p.x, p.y);
+       if (hit >= 0) {
+         if (SwingUtilities.isRightMouseButton(event)) {
+           // the handle is about to be freed, and may go to the next particle added
+           if (world.getHandle(hit) == selected)
+             selected = -1;
+           world.remove(hit);
+         }
+         else {
+           world.stop(hit);
+           selected = world.getHandle(hit);
+         }
+         repaint();
+         return;
+       }
+       
        Particle nextParticle;
 	  
          if (nextParticleType.equals("Regular"))
-           nextParticle = new Particle(event.getPoint(),nextDirection,pImage);
+           nextParticle = new Particle(p,nextDirection,pImage);
          else
-           nextParticle = new SmartParticle(event.getPoint(),nextDirection,spImage1,spImage2);
+           nextParticle = new SmartParticle(p,nextDirection,spImage1,spImage2);
 	  
-         pList[numParticles] = nextParticle;
-         numParticles++;
+         world.add(nextParticle);
+    }
+    
+    /**
+     * Method overrides one from MouseAdapter. While a particle is grabbed,
+     * every drag event moves it to the cursor.
+     * 
+     * @param event MouseEvent generated when the user drags the mouse
+     */
+    public void mouseDragged(MouseEvent event) {
+      if (selected >= 0 && world.getIndex(selected) >= 0) {
+        world.moveTo(world.getIndex(selected), (int) Math.floor(camera.toWorldX(event.getX())),
+            (int) Math.floor(camera.toWorldY(event.getY())));
+        repaint();
+      }
+    }
+    
+    /**
+     * Method overrides one from MouseAdapter. Releasing the mouse drops the
+     * grabbed particle where it is.
+     * 
+     * @param event MouseEvent generated when the user releases the mouse
+     */
+    public void mouseReleased(MouseEvent event) {
+      selected = -1;
+    }
+    
+    /**
+     * Method overrides one from MouseAdapter. Each notch of the wheel zooms
+     * the camera by a factor of two around the cursor; away from the user
+     * zooms in.
+     * 
+     * @param event MouseWheelEvent generated when the user turns the wheel
+     */
+    public void mouseWheelMoved(MouseWheelEvent event) {
+      camera.zoomAt(Math.pow(2, -event.getWheelRotation()), event.getX(), event.getY());
+      repaint();
     }
   }
   
@@ -294,9 +438,50 @@ public class ReboundPanel extends JPanel {
      * that the next particle should be smart, and the specific key specifies
      * its direction. Like before, I is Northwest, O North, and so on. The
      * directions are represented mathematically as angles in radians--this is intuitive.
+     * <br><br>
+     * B is handled separately from the direction keys: it flips between the
+     * Graphics2D and software render backends and leaves the next particle's
+     * settings alone. The same goes for the arrow keys, which pan the camera,
+     * and for + and -, which zoom it around the center of the view.
      */
     public void keyPressed(KeyEvent event) {
       switch(event.getKeyCode()) {
+        case KeyEvent.VK_LEFT:
+          camera.pan(-PAN_STEP,0);
+          repaint();
+          break;
+        case KeyEvent.VK_RIGHT:
+          camera.pan(PAN_STEP,0);
+          repaint();
+          break;
+        case KeyEvent.VK_UP:
+          camera.pan(0,-PAN_STEP);
+          repaint();
+          break;
+        case KeyEvent.VK_DOWN:
+          camera.pan(0,PAN_STEP);
+          repaint();
+          break;
+        case KeyEvent.VK_EQUALS:
+        case KeyEvent.VK_ADD:
+          camera.zoomAt(2,getWidth()/2,getHeight()/2);
+          repaint();
+          break;
+        case KeyEvent.VK_MINUS:
+        case KeyEvent.VK_SUBTRACT:
+          camera.zoomAt(0.5,getWidth()/2,getHeight()/2);
+          repaint();
+          break;
+        case KeyEvent.VK_B:
+          softwareRender = !softwareRender;
+          repaint();
+          break;
+        case KeyEvent.VK_G:
+          eventDriven = !eventDriven;
+          engine.reset();
+          world.getDiagnostics().resetTotals();
+          repaint();
+          break;
         case KeyEvent.VK_W:
           nextDirection = 0.75*Math.PI;
           selectedDirection = "Northwest";
@@ -0,0 +1,176 @@
+import java.util.*;
+
+/**
+ * ReboundQueryTest checks ParticleWorld's spatial queries against brute
+ * force. Like Rebound it is merely a tester class: run it and it prints one
+ * line per check, then exits with status 1 if any check failed.
+ * <br><br>
+ * Every query is answered twice, once by the world through its spatial index
+ * and once here by looking at every particle, and the two answers must agree.
+ * pick must return the same index. queryCircle and queryRect must return the
+ * same set of indices, in any order. nearest must return as many particles as
+ * brute force finds, with the same distances in the same order; which of two
+ * equally distant particles comes first is not checked.
+ * <br><br>
+ * The queries run on polydisperse scenes from ReboundBenchmark, at QUERIES
+ * random points each. The points are drawn from an area SPREAD times the size
+ * of the world on each side, centred on it, so most of them lie outside the
+ * walls, some far outside, as they do when the camera is zoomed far out. The
+ * world is stepped between rounds of queries, with re-sorting on, so queries
+ * are also checked after particles have moved and been re-sorted. A tiny world of SMALL
+ * particles checks that nearest finds all of them from any point.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class ReboundQueryTest {
+
+  private static final int PARTICLES = 3000;
+  private static final int ROUNDS = 5;
+  private static final int STEPS_PER_ROUND = 40;
+  private static final int QUERIES = 400;
+  private static final int SMALL = 5;
+  private static final int SPREAD = 7;
+
+  /**
+   * Runs every check and prints its result.
+   *
+   * @param args not used
+   */
+  public static void main(String[] args) {
+    boolean passed = true;
+    passed &= checkScene("sizes 1:1", ReboundBenchmark.polydisperseScene(PARTICLES, 1, 7), 7);
+    passed &= checkScene("sizes 10:1", ReboundBenchmark.polydisperseScene(PARTICLES, 10, 8), 8);
+    passed &= checkScene("sizes 100:1", ReboundBenchmark.polydisperseScene(PARTICLES, 100, 9), 9);
+    passed &= checkScene("tiny world", ReboundBenchmark.polydisperseScene(SMALL, 10, 10), 10);
+    System.out.println(passed? "all checks passed" : "QUERY CHECKS FAILED");
+    if (!passed)
+      System.exit(1);
+  }
+
+  /**
+   * Runs ROUNDS rounds of random queries against a world, stepping it
+   * between rounds, and prints how many queries disagreed with brute force.
+   */
+  private static boolean checkScene(String name, ParticleWorld world, long seed) {
+    Random rand = new Random(seed);
+    IntList indexed = new IntList();
+    IntList brute = new IntList();
+    int queries = 0, wrong = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int q = 0; q < QUERIES; q++) {
+        double x = (rand.nextDouble() - 0.5)*SPREAD*world.getWidth() + world.getWidth()/2;
+        double y = (rand.nextDouble() - 0.5)*SPREAD*world.getHeight() + world.getHeight()/2;
+        double r = rand.nextDouble()*world.getWidth()/8;
+        int k = 1 + rand.nextInt(Math.min(world.size(), 32));
+        if (q % 4 == 0) {
+          // aim at a particle, so that pick and small queries find something
+          Particle p = world.get(rand.nextInt(world.size()));
+          x = p.x + rand.nextDouble()*4 - 2;
+          y = p.y + rand.nextDouble()*4 - 2;
+        }
+
+        if (world.pick(x, y) != brutePick(world, x, y))
+          wrong++;
+        world.queryCircle(x, y, r, indexed);
+        bruteCircle(world, x, y, r, brute);
+        if (!sameSet(indexed, brute))
+          wrong++;
+        world.queryRect(x - r, y - r/2, x + r/2, y + r, indexed);
+        bruteRect(world, x - r, y - r/2, x + r/2, y + r, brute);
+        if (!sameSet(indexed, brute))
+          wrong++;
+        world.nearest(x, y, k, indexed);
+        if (!sameNearest(world, x, y, k, indexed))
+          wrong++;
+        queries += 4;
+      }
+      for (int s = 0; s < STEPS_PER_ROUND; s++) {
+        world.step();
+        world.clearColliding();
+      }
+    }
+    System.out.println(ReboundBenchmark.pad(name, 12) + (wrong == 0? "ok    " : "FAILED")
+        + "  " + wrong + " of " + queries + " queries disagreed with brute force");
+    return wrong == 0;
+  }
+
+  /**
+   * Returns the highest index whose particle contains the point, or -1.
+   */
+  private static int brutePick(ParticleWorld world, double x, double y) {
+    int hit = -1;
+    for (int i = 0; i < world.size(); i++) {
+      Particle p = world.get(i);
+      if (p.distanceSq(x, y) <= p.getRadius()*p.getRadius())
+        hit = i;
+    }
+    return hit;
+  }
+
+  /**
+   * Lists every particle overlapping a circle.
+   */
+  private static void bruteCircle(ParticleWorld world, double x, double y, double r, IntList out) {
+    out.clear();
+    for (int i = 0; i < world.size(); i++) {
+      Particle p = world.get(i);
+      double reach = r + p.getRadius();
+      if (p.distanceSq(x, y) <= reach*reach)
+        out.add(i);
+    }
+  }
+
+  /**
+   * Lists every particle overlapping a rectangle.
+   */
+  private static void bruteRect(ParticleWorld world, double minX, double minY, double maxX,
+      double maxY, IntList out) {
+    out.clear();
+    for (int i = 0; i < world.size(); i++) {
+      Particle p = world.get(i);
+      double dx = p.x - Math.max(minX, Math.min(maxX, p.x));
+      double dy = p.y - Math.max(minY, Math.min(maxY, p.y));
+      if (dx*dx + dy*dy <= p.getRadius()*p.getRadius())
+        out.add(i);
+    }
+  }
+
+  /**
+   * Returns true if the two lists hold the same indices, in any order.
+   * Sorts both.
+   */
+  private static boolean sameSet(IntList a, IntList b) {
+    if (a.size() != b.size())
+      return false;
+    a.sort();
+    b.sort();
+    for (int k = 0; k < a.size(); k++) {
+      if (a.get(k) != b.get(k))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if found holds the min(k, size) particles nearest the point,
+   * closest first, judged by their distances alone.
+   */
+  private static boolean sameNearest(ParticleWorld world, double x, double y, int k,
+      IntList found) {
+    int n = world.size();
+    double[] all = new double[n];
+    for (int i = 0; i < n; i++)
+      all[i] = world.get(i).distanceSq(x, y);
+    Arrays.sort(all);
+    if (found.size() != Math.min(k, n))
+      return false;
+    for (int j = 0; j < found.size(); j++) {
+      if (world.get(found.get(j)).distanceSq(x, y) != all[j])
+        return false;
+    }
+    return true;
+  }
+
+}
@@ -18,7 +18,7 @@ import javax.swing.*;
  * Because a colliding boolean was already included in the Particle class in order
  * to prevent collision check redundancy, it was very easy to extend the class
  * to SmartParticle. Only the constructor and the single getImage method needed to
- * be modified.
+ * be modified, along with copyFrom so that copies keep the collision image.
  * 
  * @author Kevin Roark <ker2143@columbia.edu>
  * @version SE 6
@@ -55,5 +55,17 @@ public class SmartParticle extends Particle{
   public ImageIcon getImage() {
     return (isColliding())? collisionImage : image;
   }
+  
+  /**
+   * Overriden method from Particle that also copies the other particle's
+   * collision image, if it is a SmartParticle too.
+   * 
+   * @param other Particle whose state should be copied into this one
+   */
+  public void copyFrom(Particle other) {
+    super.copyFrom(other);
+    if (other instanceof SmartParticle)
+      collisionImage = ((SmartParticle) other).collisionImage;
+  }
 
 }
@@ -0,0 +1,236 @@
+/**
+ * SpatialHash is a uniform grid spatial index over Particles. Space is cut
+ * into square cells and every particle is filed under the cell holding its
+ * center, so finding what is near a point only means looking at the handful of
+ * cells around it rather than at every particle.
+ * <br><br>
+ * Cells are not stored in a dense 2D array, which would have to cover the
+ * whole world; instead each cell's coordinates are hashed into a table whose
+ * size depends only on the number of particles. Cells that hash to the same
+ * bucket share it, so every item also remembers its real cell coordinates and
+ * lookups skip items filed under a different cell. That keeps results free of
+ * duplicates and keeps memory proportional to the particle count no matter how
+ * big the world is.
+ * <br><br>
+ * The index is rebuilt from scratch rather than updated, with a counting sort:
+ * one pass counts the items of every bucket, a prefix sum turns the counts
+ * into start offsets, and a second pass drops each item into place. Unless a
+ * cell size is given, it is picked at build time as the largest particle
+ * diameter, which guarantees that two touching particles are never more than
+ * one cell apart. All arrays are kept between builds and only grow, so
+ * rebuilding every frame allocates nothing once the particle count settles.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class SpatialHash {
+
+  private double cellSize, maxRadius;
+  private int count, mask, shift;
+  private int[] bucketStart, items, itemCellX, itemCellY, itemBucket;
+
+  /**
+   * Creates an empty index. Nothing can be found in it until build is called.
+   */
+  public SpatialHash() {
+    cellSize = 1;
+    bucketStart = new int[2];
+    items = itemCellX = itemCellY = itemBucket = new int[0];
+  }
+
+  /**
+   * Files the first count particles of the list, by index, under the cell
+   * holding their current center, with the cell size set to the largest
+   * diameter among them. Anything filed by an earlier build is forgotten.
+   *
+   * @param list particles to index
+   * @param count number of particles in list to index
+   */
+  public void build(Particle[] list, int count) {
+    double largest = 0;
+    for (int i = 0; i < count; i++)
+      largest = Math.max(largest, list[i].getRadius());
+    build(list, null, 0, count, 2*largest);
+  }
+
+  /**
+   * Files some of the particles of the list, by index, under the cell holding
+   * their current center, using the given cell size. This is how one level
+   * of a HierarchicalSpatialHash is filled. Anything filed by an earlier build
+   * is forgotten.
+   *
+   * @param list particles to index from
+   * @param members indices into list of the particles to index, or null to
+   * index the first count particles
+   * @param from position in members of the first index to use
+   * @param count number of particles to index
+   * @param size side length of a cell; at least 1 is used
+   */
+  public void build(Particle[] list, int[] members, int from, int count, double size) {
+    this.count = count;
+    cellSize = Math.max(1, size);
+    maxRadius = 0;
+
+    int tableSize = 16;
+    shift = 28;
+    while (tableSize < 2*count) {
+      tableSize <<= 1;
+      shift--;
+    }
+    mask = tableSize - 1;
+    if (bucketStart.length < tableSize+1)
+      bucketStart = new int[tableSize+1];
+    if (items.length < count) {
+      items = new int[count];
+      itemCellX = new int[count];
+      itemCellY = new int[count];
+      itemBucket = new int[count];
+    }
+
+    for (int b = 0; b <= tableSize; b++)
+      bucketStart[b] = 0;
+    for (int k = 0; k < count; k++) {
+      Particle p = list[(members == null)? k : members[from+k]];
+      maxRadius = Math.max(maxRadius, p.getRadius());
+      int b = bucket(cell(p.x), cell(p.y));
+      itemBucket[k] = b;
+      bucketStart[b+1]++;
+    }
+    for (int b = 0; b < tableSize; b++)
+      bucketStart[b+1] += bucketStart[b];
+
+    // second pass fills each bucket back to front, using the next bucket's
+    // start as the cursor; that leaves every offset one slot too high, so
+    // they are slid back down afterwards
+    for (int k = count-1; k >= 0; k--) {
+      int i = (members == null)? k : members[from+k];
+      int slot = --bucketStart[itemBucket[k]+1];
+      items[slot] = i;
+      itemCellX[slot] = cell(list[i].x);
+      itemCellY[slot] = cell(list[i].y);
+    }
+    System.arraycopy(bucketStart, 1, bucketStart, 0, tableSize);
+    bucketStart[tableSize] = count;
+  }
+
+  /**
+   * Adds to out the index of every particle that might overlap the given
+   * rectangle. The rectangle is widened by the largest indexed radius, so a
+   * particle is included whenever its disk could reach into the rectangle;
+   * callers do their own exact test on what comes back. No index is added
+   * twice, and out is not cleared first.
+   * <br><br>
+   * When the rectangle spans more cells than there are particles, it is
+   * cheaper to look at every item once than to visit every cell, so that is
+   * done instead.
+   *
+   * @param minX left edge of the rectangle
+   * @param minY top edge of the rectangle
+   * @param maxX right edge of the rectangle
+   * @param maxY bottom edge of the rectangle
+   * @param out list the candidate indices are appended to
+   */
+  public void collect(double minX, double minY, double maxX, double maxY, IntList out) {
+    int cx0 = cell(minX - maxRadius);
+    int cy0 = cell(minY - maxRadius);
+    int cx1 = cell(maxX + maxRadius);
+    int cy1 = cell(maxY + maxRadius);
+
+    if ((double) (cx1-cx0+1)*(cy1-cy0+1) > count) {
+      for (int k = 0; k < count; k++) {
+        if (itemCellX[k] >= cx0 && itemCellX[k] <= cx1
+            && itemCellY[k] >= cy0 && itemCellY[k] <= cy1)
+          out.add(items[k]);
+      }
+      return;
+    }
+
+    for (int cy = cy0; cy <= cy1; cy++) {
+      for (int cx = cx0; cx <= cx1; cx++) {
+        int b = bucket(cx, cy);
+        for (int k = bucketStart[b]; k < bucketStart[b+1]; k++) {
+          if (itemCellX[k] == cx && itemCellY[k] == cy)
+            out.add(items[k]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the side length of a cell, fixed at the last build.
+   *
+   * @return side length of a cell, at least 1
+   */
+  public double getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Returns the number of particles indexed by the last build.
+   *
+   * @return number of indexed particles
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Returns the largest radius among the particles indexed by the last build.
+   *
+   * @return largest indexed radius, or 0 if nothing is indexed
+   */
+  public double getMaxRadius() {
+    return maxRadius;
+  }
+
+  /**
+   * Returns the cell coordinate holding a position along either axis.
+   */
+  private int cell(double v) {
+    return (int) Math.floor(v / cellSize);
+  }
+
+  /**
+   * Hashes cell coordinates into a bucket of the table. Cells are grouped
+   * into 4 by 4 tiles. The tile's part of the Z-order key is multiplied by an
+   * odd constant (2^32 over the golden ratio), and the top bits of the
+   * product, which every bit of the key feeds into, say where the tile starts
+   * in the table; the cell's place in the tile is added to that. The 16 cells
+   * of a tile thus sit in consecutive buckets, so the cells of a lookup are
+   * mostly close together in memory, while tiles are spread over the whole
+   * table. The low bits of the key alone kept neighbours together too, but
+   * are a plain grid modulo the table size, and a column of particles piled
+   * into a handful of buckets.
+   */
+  private int bucket(int cx, int cy) {
+    int key = mortonKey(cx, cy);
+    return (((key >>> 4) * 0x9E3779B9 >>> shift) + (key & 15)) & mask;
+  }
+
+  /**
+   * Interleaves the low 16 bits of two cell coordinates, x in the even bits
+   * and y in the odd ones, giving the cell's position along a Z-order
+   * (Morton) curve.
+   *
+   * @param cx x-coordinate of the cell
+   * @param cy y-coordinate of the cell
+   * @return the cell's Z-order key
+   */
+  static int mortonKey(int cx, int cy) {
+    return spreadBits(cx) | (spreadBits(cy) << 1);
+  }
+
+  /**
+   * Spreads the low 16 bits of v out to the even bits of the result.
+   */
+  private static int spreadBits(int v) {
+    v &= 0xffff;
+    v = (v | (v << 8)) & 0x00ff00ff;
+    v = (v | (v << 4)) & 0x0f0f0f0f;
+    v = (v | (v << 2)) & 0x33333333;
+    v = (v | (v << 1)) & 0x55555555;
+    return v;
+  }
+
+}
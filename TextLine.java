@@ -0,0 +1,169 @@
+import java.awt.*;
+
+/**
+ * TextLine is a reusable line of text for on-screen readouts that change every
+ * frame, like the numbers ReboundPanel shows in its corner. Building those with
+ * string concatenation creates a StringBuilder, its char array and a String for
+ * every line of every frame, which is garbage the collector then has to pause
+ * the animation for. A TextLine instead appends text and numbers straight into
+ * a char array it keeps, and draws it with Graphics.drawChars, so redrawing the
+ * readout allocates nothing.
+ * <br><br>
+ * Numbers are formatted by hand. Whole numbers are written in full; decimals
+ * are rounded to a given number of places and then lose their trailing zeros,
+ * keeping at least one digit after the point, which makes them read the same
+ * as the Math.round(x*1000)/1000.0 idiom the panel used to print.
+ *
+ * @author agent <agent@local>
+ * @version SE 6
+ * @since 2026-10-19
+ */
+public class TextLine {
+
+  private char[] chars;
+  private int length;
+
+  /**
+   * Creates an empty line.
+   */
+  public TextLine() {
+    chars = new char[64];
+    length = 0;
+  }
+
+  /**
+   * Empties the line, keeping its storage.
+   *
+   * @return this line, so calls can be chained
+   */
+  public TextLine clear() {
+    length = 0;
+    return this;
+  }
+
+  /**
+   * Appends a string.
+   *
+   * @param s text to append
+   * @return this line, so calls can be chained
+   */
+  public TextLine append(String s) {
+    ensureRoom(s.length());
+    s.getChars(0, s.length(), chars, length);
+    length += s.length();
+    return this;
+  }
+
+  /**
+   * Appends a whole number in decimal.
+   *
+   * @param v number to append
+   * @return this line, so calls can be chained
+   */
+  public TextLine append(long v) {
+    ensureRoom(20);
+    if (v < 0)
+      chars[length++] = '-';
+    else
+      v = -v;    // work with negatives, so that Long.MIN_VALUE fits too
+    int start = length;
+    do {
+      chars[length++] = (char) ('0' - (v % 10));
+      v /= 10;
+    } while (v != 0);
+    reverse(start, length-1);
+    return this;
+  }
+
+  /**
+   * Appends a number rounded to at most the given number of decimal places,
+   * dropping trailing zeros but keeping at least one digit after the point.
+   * Numbers too large to round that way, and NaN or infinities, fall back to
+   * Double.toString, which does allocate.
+   *
+   * @param v number to append
+   * @param places most digits to show after the decimal point, from 1 to 9
+   * @return this line, so calls can be chained
+   */
+  public TextLine append(double v, int places) {
+    long scale = 1;
+    for (int k = 0; k < places; k++)
+      scale *= 10;
+    if (Double.isNaN(v) || Math.abs(v) >= (double) Long.MAX_VALUE / scale)
+      return append(Double.toString(v));
+
+    long scaled = Math.round(Math.abs(v)*scale);
+    if (v < 0 && scaled != 0) {
+      ensureRoom(1);
+      chars[length++] = '-';
+    }
+    append(scaled / scale);
+    ensureRoom(places + 1);
+    chars[length++] = '.';
+    long fraction = scaled % scale;
+    int digits = places;
+    while (digits > 1 && fraction % 10 == 0) {
+      fraction /= 10;
+      digits--;
+    }
+    for (int k = digits-1; k >= 0; k--) {
+      chars[length + k] = (char) ('0' + fraction % 10);
+      fraction /= 10;
+    }
+    length += digits;
+    return this;
+  }
+
+  /**
+   * Returns the number of characters in the line.
+   *
+   * @return length of the line
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Draws the line with its baseline starting at (x, y), in the graphics
+   * context's current font and color.
+   *
+   * @param page graphics context to draw on
+   * @param x x-coordinate of the start of the line
+   * @param y y-coordinate of the baseline
+   */
+  public void draw(Graphics page, int x, int y) {
+    page.drawChars(chars, 0, length, x, y);
+  }
+
+  /**
+   * Returns the line as a String. Meant for debugging; it allocates.
+   *
+   * @return the text of the line
+   */
+  public String toString() {
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * Grows the array, if needed, so that n more characters fit.
+   */
+  private void ensureRoom(int n) {
+    if (length + n > chars.length) {
+      char[] bigger = new char[Math.max(chars.length*2, length + n)];
+      System.arraycopy(chars, 0, bigger, 0, length);
+      chars = bigger;
+    }
+  }
+
+  /**
+   * Reverses chars[from..to] in place.
+   */
+  private void reverse(int from, int to) {
+    while (from < to) {
+      char t = chars[from];
+      chars[from++] = chars[to];
+      chars[to--] = t;
+    }
+  }
+
+}